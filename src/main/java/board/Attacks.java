@@ -0,0 +1,191 @@
+package board;
+
+/*
+ * Precomputed attack tables.
+ * -> Knights, kings and pawns have one attack set per square.
+ * -> Sliding pieces use magic bitboards: the blockers on a piece's relevant rays are hashed
+ *    with a per-square magic multiplier into a table of pre-calculated attack sets.
+ * -> Everything is built once, when the class is first loaded.
+ */
+
+public abstract class Attacks {
+    private static final long[] knightAttacks = new long[64];
+    private static final long[] kingAttacks = new long[64];
+    private static final long[] whitePawnAttacks = new long[64];
+    private static final long[] blackPawnAttacks = new long[64];
+    private static final long[][] betweenSquares = new long[64][64];
+
+    private static final long[] rookMasks = new long[64];
+    private static final long[] bishopMasks = new long[64];
+    private static final long[] rookMagics = new long[64];
+    private static final long[] bishopMagics = new long[64];
+    private static final int[] rookShifts = new int[64];
+    private static final int[] bishopShifts = new int[64];
+    private static final long[][] rookTable = new long[64][];
+    private static final long[][] bishopTable = new long[64][];
+
+    private static final int[][] rookDirections = {{0, 1}, {1, 0}, {0, -1}, {-1, 0}};
+    private static final int[][] bishopDirections = {{1, 1}, {1, -1}, {-1, -1}, {-1, 1}};
+    private static final int[][] knightJumps = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+    private static final int[][] kingSteps = {{0, 1}, {1, 1}, {1, 0}, {1, -1}, {0, -1}, {-1, -1}, {-1, 0}, {-1, 1}};
+
+    // State of the xorshift generator used to search for magics. Fixed seed, so the tables are the same every run.
+    private static long seed = 0x2545F4914F6CDD1DL;
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            rookMasks[square] = relevantMask(square, rookDirections);
+            bishopMasks[square] = relevantMask(square, bishopDirections);
+            rookShifts[square] = 64 - Long.bitCount(rookMasks[square]);
+            bishopShifts[square] = 64 - Long.bitCount(bishopMasks[square]);
+            rookTable[square] = new long[1 << Long.bitCount(rookMasks[square])];
+            bishopTable[square] = new long[1 << Long.bitCount(bishopMasks[square])];
+            rookMagics[square] = findMagic(square, rookMasks[square], rookShifts[square], rookDirections, rookTable[square]);
+            bishopMagics[square] = findMagic(square, bishopMasks[square], bishopShifts[square], bishopDirections, bishopTable[square]);
+
+            knightAttacks[square] = stepAttacks(square, knightJumps);
+            kingAttacks[square] = stepAttacks(square, kingSteps);
+            whitePawnAttacks[square] = square / 8 == 7 ? 0 : stepAttacks(square, new int[][] {{-1, 1}, {1, 1}});
+            blackPawnAttacks[square] = square / 8 == 0 ? 0 : stepAttacks(square, new int[][] {{-1, -1}, {1, -1}});
+        }
+
+        // The squares strictly between two squares on a shared line, or nothing if they don't share one.
+        for (int from = 0; from < 64; from++) {
+            for (int to = 0; to < 64; to++) {
+                long toBit = 1L << to;
+                if ((rook(from, 0) & toBit) != 0) {
+                    betweenSquares[from][to] = rook(from, toBit) & rook(to, 1L << from);
+                } else if ((bishop(from, 0) & toBit) != 0) {
+                    betweenSquares[from][to] = bishop(from, toBit) & bishop(to, 1L << from);
+                }
+            }
+        }
+    }
+
+    public static long knight(int square) { return knightAttacks[square]; }
+
+    public static long king(int square) { return kingAttacks[square]; }
+
+    /**
+     * @return the squares a pawn of the given color on square attacks (not the squares it can move to).
+     */
+    public static long pawn(boolean white, int square) { return white ? whitePawnAttacks[square] : blackPawnAttacks[square]; }
+
+    /**
+     * @return the squares strictly between from and to if they share a rank, file or diagonal, and 0 otherwise.
+     */
+    public static long between(int from, int to) { return betweenSquares[from][to]; }
+
+    /**
+     * @param square the square the rook is on.
+     * @param occupancy every occupied square on the board (pieces of both colors).
+     * @return a bitboard of every square the rook attacks, including the first blocker in each direction.
+     */
+    public static long rook(int square, long occupancy) {
+        return rookTable[square][(int) (((occupancy & rookMasks[square]) * rookMagics[square]) >>> rookShifts[square])];
+    }
+
+    /**
+     * @param square the square the bishop is on.
+     * @param occupancy every occupied square on the board (pieces of both colors).
+     * @return a bitboard of every square the bishop attacks, including the first blocker in each direction.
+     */
+    public static long bishop(int square, long occupancy) {
+        return bishopTable[square][(int) (((occupancy & bishopMasks[square]) * bishopMagics[square]) >>> bishopShifts[square])];
+    }
+
+    public static long queen(int square, long occupancy) {
+        return rook(square, occupancy) | bishop(square, occupancy);
+    }
+
+    private static long stepAttacks(int square, int[][] steps) {
+        long attacks = 0;
+        for (int[] step : steps) {
+            int x = square % 8 + step[0];
+            int y = square / 8 + step[1];
+            if (x >= 0 && x <= 7 && y >= 0 && y <= 7) attacks |= 1L << (x + 8 * y);
+        }
+        return attacks;
+    }
+
+    /**
+     * @return the squares along the given directions that can change the attack set, which excludes the board edge.
+     */
+    private static long relevantMask(int square, int[][] directions) {
+        long mask = 0;
+        for (int[] direction : directions) {
+            int x = square % 8 + direction[0];
+            int y = square / 8 + direction[1];
+            while (x + direction[0] >= 0 && x + direction[0] <= 7 && y + direction[1] >= 0 && y + direction[1] <= 7) {
+                mask |= 1L << (x + 8 * y);
+                x += direction[0];
+                y += direction[1];
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return the squares attacked from square along the given directions, walking each ray until it hits a blocker.
+     */
+    private static long slowAttacks(int square, long occupancy, int[][] directions) {
+        long attacks = 0;
+        for (int[] direction : directions) {
+            int x = square % 8;
+            int y = square / 8;
+            while (true) {
+                x += direction[0];
+                y += direction[1];
+                if (x < 0 || x > 7 || y < 0 || y > 7) break;
+                attacks |= 1L << (x + 8 * y);
+                if (((occupancy >>> (x + 8 * y)) & 1) != 0) break;
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Searches for a multiplier that maps every blocker subset of mask to a table index without destructive collisions,
+     * and fills table with the attack sets as it goes.
+     */
+    private static long findMagic(int square, long mask, int shift, int[][] directions, long[] table) {
+        int numSubsets = 1 << Long.bitCount(mask);
+        long[] occupancies = new long[numSubsets];
+        long[] attacks = new long[numSubsets];
+
+        // Enumerate every subset of the mask (Carry-Rippler trick).
+        long subset = 0;
+        for (int i = 0; i < numSubsets; i++) {
+            occupancies[i] = subset;
+            attacks[i] = slowAttacks(square, subset, directions);
+            subset = (subset - mask) & mask;
+        }
+
+        int[] usedBy = new int[numSubsets];
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            long magic = nextRandom() & nextRandom() & nextRandom(); // Sparse candidates work best.
+            if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6) continue;
+
+            boolean failed = false;
+            for (int i = 0; i < numSubsets && !failed; i++) {
+                int index = (int) ((occupancies[i] * magic) >>> shift);
+                if (usedBy[index] != attempt) {
+                    usedBy[index] = attempt;
+                    table[index] = attacks[i];
+                } else if (table[index] != attacks[i]) {
+                    failed = true;
+                }
+            }
+            if (!failed) return magic;
+        }
+    }
+
+    private static long nextRandom() {
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        return seed * 0x2545F4914F6CDD1DL;
+    }
+}
@@ -5,7 +5,7 @@ import game.Game;
 import moves.*;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Stack;
@@ -22,30 +22,9 @@ public class Board {
     private static String[] unicodeChess = new String[] {"\u2654", "\u2655",
             "\u2656", "\u2657", "\u2658", "\u2659", "  ", "\u265F", "\u265E",
             "\u265D", "\u265C", "\u265B", "\u265A"};
-    private final static int MOVE_STACK_SIZE = 10000;
-    private final static long[] knightAttacks = {
-            0x0000000000020400L, 0x0000000000050800L, 0x00000000000A1100L,
-            0x0000000000142200L, 0x0000000000284400L, 0x0000000000508800L,
-            0x0000000000A01000L, 0x0000000000402000L, 0x0000000002040004L,
-            0x0000000005080008L, 0x000000000A110011L, 0x0000000014220022L,
-            0x0000000028440044L, 0x0000000050880088L, 0x00000000A0100010L,
-            0x0000000040200020L, 0x0000000204000402L, 0x0000000508000805L,
-            0x0000000A1100110AL, 0x0000001422002214L, 0x0000002844004428L,
-            0x0000005088008850L, 0x000000A0100010A0L, 0x0000004020002040L,
-            0x0000020400040200L, 0x0000050800080500L, 0x00000A1100110A00L,
-            0x0000142200221400L, 0x0000284400442800L, 0x0000508800885000L,
-            0x0000A0100010A000L, 0x0000402000204000L, 0x0002040004020000L,
-            0x0005080008050000L, 0x000A1100110A0000L, 0x0014220022140000L,
-            0x0028440044280000L, 0x0050880088500000L, 0x00A0100010A00000L,
-            0x0040200020400000L, 0x0204000402000000L, 0x0508000805000000L,
-            0x0A1100110A000000L, 0x1422002214000000L, 0x2844004428000000L,
-            0x5088008850000000L, 0xA0100010A0000000L, 0x4020002040000000L,
-            0x0400040200000000L, 0x0800080500000000L, 0x1100110A00000000L,
-            0x2200221400000000L, 0x4400442800000000L, 0x8800885000000000L,
-            0x100010A000000000L, 0x2000204000000000L, 0x0004020000000000L,
-            0x0008050000000000L, 0x00110A0000000000L, 0x0022140000000000L,
-            0x0044280000000000L, 0x0088500000000000L, 0x0010A00000000000L,
-            0x0020400000000000L};
+    // The history starts this big and doubles whenever it fills up.
+    private final static int INITIAL_HISTORY_SIZE = 64;
+    private final static long PROMOTION_RANKS = 0xFF000000000000FFL;
 
     // The KingSafety class allows the getAllLegalMoves method to weed out illegal moves at runtime,
     // letting it avoid the old workaround of digging one layer deeper and checking then.
@@ -76,21 +55,42 @@ public class Board {
      * -> each long has 64 1s and 0s, allowing a single long to represent a boolean at each spot on the board.
      * -> _whites are 0 for each non white spot, and 1 for each white spot
      * -> if a spot is true for _whites, _bishops, and _rooks, and no other bitboard, then it's a white queen.
+     * -> _pieces holds the same position as one piece per square (in the format above), so pieceAt is a single read.
+     *    Every change goes through setPiece, copy or wipe, which keep the two in sync.
      */
     public long _whites;
     public long _blacks;
     public long _pawns;
+    public long _knights;
     public long _bishops;
     public long _rooks;
     public long _kings;
+    private final byte[] _pieces = new byte[64];
 
     public int  _info;
 
-    private long[] _moveHistory;
+    // How many of each piece are on the board, indexed by piece + 6, and the material key those counts hash to (see Zobrist).
+    private final byte[] _pieceCounts = new byte[13];
+    public long _materialKey;
+
+    // Zobrist key of the position (see Zobrist). Updated by MoveUtils.applyMove, and restored from _hashHistory on undo.
+    public long _hash;
+
+    // The undo stack. _moveHistory[i] was made from a position with key _hashHistory[i] and BoardInfo _infoHistory[i],
+    // and captured _capturedHistory[i].
+    private int[] _moveHistory;
+    private long[] _hashHistory;
+    private int[] _infoHistory;
+    private byte[] _capturedHistory;
     private int _moveHistorySize;
 
+    private KingSafety _safety;
+
+    // The variant being played (see Rules).
+    private final Rules _rules;
+
     public Board(Game.Type type) {
-        this(startLayout(type));
+        this(startLayout(type), BoardInfo.START_INFO, Rules.forType(type));
     }
 
     public Board(int[] layout) {
@@ -98,174 +98,429 @@ public class Board {
     }
 
     public Board(int[] layout, int info) {
+        this(layout, info, null);
+    }
+
+    /**
+     * @param rules the variant to play, or null to pick one from the layout (see Rules.forBoard).
+     */
+    public Board(int[] layout, int info, Rules rules) {
         for (int i = 0; i < 64; i++) {
-            if (layout[i] > 0) _whites = setBit(_whites, true, i);
-            if (layout[i] < 0) _blacks = setBit(_blacks, true, i);
-            if (layout[i] == 1 || layout[i] == -1) _pawns = setBit(_pawns, true, i);
-            if (layout[i] == 3 || layout[i] == -3 || layout[i] == 5 || layout[i] == -5) _bishops = setBit(_bishops, true, i);
-            if (layout[i] == 4 || layout[i] == -4 || layout[i] == 5 || layout[i] == -5) _rooks = setBit(_rooks, true, i);
-            if (layout[i] == 6 || layout[i] == -6) _kings = setBit(_kings, true, i);
+            setPiece(i, layout[i]);
         }
         _info = info;
-        _moveHistory = new long[MOVE_STACK_SIZE];
-        _moveHistorySize = 0;
+        _rules = rules == null ? Rules.forBoard(this) : rules;
+        allocateHistory(INITIAL_HISTORY_SIZE);
+        _hash = Zobrist.hash(this);
     }
 
     public Board(long whites, long blacks, long pawns, long bishops, long rooks, long kings, int info) {
-        _whites = whites;
-        _blacks = blacks;
-        _pawns = pawns;
-        _bishops = bishops;
-        _rooks = rooks;
-        _kings = kings;
+        for (int i = 0; i < 64; i++) {
+            int piece = getBit(kings, i) ? 6 : getBit(pawns, i) ? 1 : getBit(bishops & rooks, i) ? 5 :
+                    getBit(rooks, i) ? 4 : getBit(bishops, i) ? 3 : getBit(whites | blacks, i) ? 2 : 0;
+            setPiece(i, getBit(whites, i) ? piece : -piece);
+        }
         _info = info;
-        _moveHistory = new long[MOVE_STACK_SIZE];
+        _rules = Rules.forBoard(this);
+        allocateHistory(INITIAL_HISTORY_SIZE);
+        _hash = Zobrist.hash(this);
+    }
+
+    private Board(Board other) {
+        _whites = other._whites;
+        _blacks = other._blacks;
+        _pawns = other._pawns;
+        _knights = other._knights;
+        _bishops = other._bishops;
+        _rooks = other._rooks;
+        _kings = other._kings;
+        System.arraycopy(other._pieces, 0, _pieces, 0, 64);
+        _rules = other._rules;
+        System.arraycopy(other._pieceCounts, 0, _pieceCounts, 0, 13);
+        _materialKey = other._materialKey;
+        _info = other._info;
+        _hash = other._hash;
+        // Only the used part of the history is copied, with room for a search's worth of moves on top.
+        allocateHistory(other._moveHistorySize + INITIAL_HISTORY_SIZE);
+        _moveHistorySize = other._moveHistorySize;
+        System.arraycopy(other._moveHistory, 0, _moveHistory, 0, _moveHistorySize);
+        System.arraycopy(other._hashHistory, 0, _hashHistory, 0, _moveHistorySize);
+        System.arraycopy(other._infoHistory, 0, _infoHistory, 0, _moveHistorySize);
+        System.arraycopy(other._capturedHistory, 0, _capturedHistory, 0, _moveHistorySize);
+    }
+
+    private void allocateHistory(int size) {
+        _moveHistory = new int[size];
+        _hashHistory = new long[size];
+        _infoHistory = new int[size];
+        _capturedHistory = new byte[size];
         _moveHistorySize = 0;
     }
 
-    public void applyMove(long move) {
-        _moveHistory[_moveHistorySize] = MoveUtils.applyMove(this, move);
+    public void applyMove(int move) {
+        if (_moveHistorySize == _moveHistory.length) growHistory();
+        _moveHistory[_moveHistorySize] = move;
+        _hashHistory[_moveHistorySize] = _hash;
+        _infoHistory[_moveHistorySize] = _info;
+        _capturedHistory[_moveHistorySize] = (byte) MoveUtils.applyMove(this, move);
         _moveHistorySize++;
     }
 
+    private void growHistory() {
+        _moveHistory = Arrays.copyOf(_moveHistory, 2 * _moveHistory.length);
+        _hashHistory = Arrays.copyOf(_hashHistory, 2 * _hashHistory.length);
+        _infoHistory = Arrays.copyOf(_infoHistory, 2 * _infoHistory.length);
+        _capturedHistory = Arrays.copyOf(_capturedHistory, 2 * _capturedHistory.length);
+    }
+
+    /**
+     * Passes the turn without moving, for the search's null move pruning. Undo it with undoMove like any other move.
+     * -> En passant is no longer possible, and the repetition count starts over, since nothing before it can repeat in a real game.
+     */
+    public void applyNullMove() {
+        if (_moveHistorySize == _moveHistory.length) growHistory();
+        _moveHistory[_moveHistorySize] = MoveUtils.NO_MOVE;
+        _hashHistory[_moveHistorySize] = _hash;
+        _infoHistory[_moveHistorySize] = _info;
+        _capturedHistory[_moveHistorySize] = 0;
+        _moveHistorySize++;
+
+        int info = BoardInfo.setLastMoveWasDoublePawnMove(BoardInfo.setNumMovesSinceProgress(_info, 0), false);
+        _hash ^= Zobrist.infoKey(_info) ^ Zobrist.infoKey(info) ^ Zobrist.sideKey();
+        _info = info;
+    }
+
     public void undoMove() {
         _moveHistorySize--;
-        MoveUtils.undoMove(this, _moveHistory[_moveHistorySize]);
+        int move = _moveHistory[_moveHistorySize];
+        if (move != MoveUtils.NO_MOVE) MoveUtils.undoMove(this, move, _capturedHistory[_moveHistorySize]);
+        _info = _infoHistory[_moveHistorySize];
+        _hash = _hashHistory[_moveHistorySize];
+    }
+
+    /**
+     * @return the move that led to this position, or MoveUtils.NO_MOVE if there's none on the undo stack (or it was a null move).
+     */
+    public int getLastMove() {
+        return _moveHistorySize == 0 ? MoveUtils.NO_MOVE : _moveHistory[_moveHistorySize - 1];
     }
 
+    public enum Result { ONGOING, WHITE_WON, BLACK_WON, DRAW }
+
     public boolean isCheckMated(boolean white) {
-        return kingIsInCheck(white) && getAllLegalMoves(white, false).size() == 0;
+        return kingIsInCheck(white) && !hasAnyLegalMove(white);
     }
 
-    public List<Long> getAllLegalMoves(boolean forWhite, boolean forHuman) {
+    /**
+     * @param whiteToMove whose turn it is.
+     * @return whether the game is over, and how: checkmate, stalemate, or one of the draw rules.
+     */
+    public Result gameResult(boolean whiteToMove) {
+        if (!hasAnyLegalMove(whiteToMove)) {
+            if (!_rules.losesWithNoMoves(this, whiteToMove)) return Result.DRAW; // Stalemate.
+            return whiteToMove ? Result.BLACK_WON : Result.WHITE_WON;
+        }
+        return isDraw() ? Result.DRAW : Result.ONGOING;
+    }
+
+    /**
+     * Stops at the first legal move it finds, trying king moves first, so it's much cheaper than generating every move.
+     * -> Castling never has to be tried: if a castle is legal, so is the king's single step towards it.
+     */
+    public boolean hasAnyLegalMove(boolean forWhite) {
+        long own = forWhite ? _whites : _blacks;
+        long enemies = forWhite ? _blacks : _whites;
+        if (!_rules.hasKing(forWhite)) {
+            // Without a king, any move at all is legal.
+            for (long pieces = own; pieces != 0; pieces &= pieces - 1) {
+                int from = Long.numberOfTrailingZeros(pieces);
+                if ((pawn(from) ? pawnTargets(from, forWhite) : pieceTargets(from, _whites | _blacks) & ~own) != 0) return true;
+            }
+            return false;
+        }
+
+        int kingPos = Long.numberOfTrailingZeros(_kings & own);
+        long occupancy = (_whites | _blacks) & ~(1L << kingPos);
+        for (long targets = Attacks.king(kingPos) & ~own; targets != 0; targets &= targets - 1) {
+            if ((attackersTo(Long.numberOfTrailingZeros(targets), occupancy) & enemies) == 0) return true;
+        }
+
+        // In double check, only the king can move.
+        if (Long.bitCount(attackersTo(kingPos, _whites | _blacks) & enemies) > 1) return false;
+
+        for (long pieces = own & ~_kings; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            long targets = pawn(from) ? pawnTargets(from, forWhite) : pieceTargets(from, _whites | _blacks) & ~own;
+            for (; targets != 0; targets &= targets - 1) {
+                int to = Long.numberOfTrailingZeros(targets);
+                if (isLegal(MoveUtils.generateMove(from, to, this, 2), forWhite)) return true;
+            }
+        }
+        return false;
+    }
+
+    public Rules getRules() {
+        return _rules;
+    }
+
+    public List<Integer> getAllLegalMoves(boolean forWhite, boolean forHuman) {
+        MoveBuffer output = new MoveBuffer(_rules.moveBufferCapacity());
+        generateLegalMoves(forWhite, forHuman, output);
+        return output.toList();
+    }
+
+    /**
+     * Writes every legal move for the given color into output, replacing whatever it held before.
+     * -> Allocates nothing, so search can call it at every node with one buffer per ply.
+     */
+    public void generateLegalMoves(boolean forWhite, boolean forHuman, MoveBuffer output) {
+        if (!_rules.hasKing(forWhite)) {
+            generateKinglessMoves(forWhite, forHuman, output);
+            return;
+        }
         KingSafety safety = getKingSafety(forWhite);
 
-        List<Long> output = new ArrayList<>();
+        output.clear();
 
-        // Go to each piece, and add all of its moves to the output.
-        for (int i = 0; i < 64; i++) {
-            // If there isn't a piece of the correct color at i, continue:
-            if ((forWhite && !white(i)) || (!forWhite && !black(i))) continue;
+        // Go to each piece of the correct color, and add all of its moves to the output.
+        for (long pieces = forWhite ? _whites : _blacks; pieces != 0; pieces &= pieces - 1) {
+            int i = Long.numberOfTrailingZeros(pieces);
 
             // Determine the piece, and calculate its moves accordingly.
             if (king(i)) {
                 // King
-                output.addAll(bitMovesToMoves(i, safety.kingMoveOptions, 0));
-
-                // Castling
-                if (forWhite && !BoardInfo.whiteKingHasMoved(_info) && !BoardInfo.whiteCastleA1HasMoved(_info) && white(0) &&
-                        empty(1) && empty(2) && empty(3) && !safety.kingInCheck && !positionIsInCheck(2, true)) {
-                    output.add(MoveUtils.generateMove(i, 2, this, 0));
-                }
-                if (forWhite && !BoardInfo.whiteKingHasMoved(_info) && !BoardInfo.whiteCastleH1HasMoved(_info) && white(7) &&
-                        empty(6) && empty(5) && !safety.kingInCheck && !positionIsInCheck(6, true)) {
-                    output.add(MoveUtils.generateMove(i, 6, this, 0));                }
-                if (!forWhite && !BoardInfo.blackKingHasMoved(_info) && !BoardInfo.blackCastleA7HasMoved(_info) && black(56) &&
-                        empty(57) && empty(58) && empty(59) && !safety.kingInCheck && !positionIsInCheck(58, false)) {
-                    output.add(MoveUtils.generateMove(i, 58, this, 0));                }
-                if (!forWhite && !BoardInfo.blackKingHasMoved(_info) && !BoardInfo.blackCastleH7HasMoved(_info) && black(63) &&
-                        empty(62) && empty(61) && !safety.kingInCheck && !positionIsInCheck(62, false)) {
-                    output.add(MoveUtils.generateMove(i, 62, this, 0));                }
+                bitMovesToMoves(i, safety.kingMoveOptions, 0, output);
 
+                addCastlingMoves(i, forWhite, output);
             } else if (!safety.kingDoubleCheck) {
                 if (bishop(i) && rook(i)) {
                     // Queen
-                    output.addAll(getLineMoves(i, true, true, false, forWhite, 7, safety));
+                    getLineMoves(i, true, true, false, forWhite, safety, output);
                 } else if (rook(i)) {
                     // Rook
-                    output.addAll(getLineMoves(i, true, false, false, forWhite, 7, safety));
+                    getLineMoves(i, true, false, false, forWhite, safety, output);
                 } else if (bishop(i)) {
                     // Bishop
-                    output.addAll(getLineMoves(i, false, true, false, forWhite, 7, safety));
+                    getLineMoves(i, false, true, false, forWhite, safety, output);
                 } else if (pawn(i)) {
                     // Pawn
-                    output.addAll(getPawnMoves(i, safety, forHuman));
+                    getPawnMoves(i, safety, forHuman, output);
                 } else {
                     // Knight
-                    output.addAll(getLineMoves(i, false, false, true, forWhite, 1, safety));
+                    getLineMoves(i, false, false, true, forWhite, safety, output);
                 }
             }
         }
-
-        return output;
     }
 
-    public boolean kingIsInCheck(boolean whiteKing) {
-        return positionIsInCheck(Long.numberOfTrailingZeros(_kings & (whiteKing ? _whites : _blacks)), whiteKing);
-    }
+    /**
+     * The fast path for a side without a king (Horde's white): nothing can be pinned or checked, so every pseudo-legal move is legal.
+     */
+    private void generateKinglessMoves(boolean forWhite, boolean forHuman, MoveBuffer output) {
+        output.clear();
+        long own = forWhite ? _whites : _blacks;
+        long occupancy = _whites | _blacks;
 
-    private boolean positionIsInCheck(int pos, boolean forWhite) {
-        // Check for bishops and rooks.
-        for (int direction = 0; direction < 8; direction++) {
-            int dx = (direction == 0 || direction == 4) ? 0 : (direction < 4) ? 1 : -1;
-            int dy = (direction == 2 || direction == 6) ? 0 : (direction < 6 && direction > 2) ? 1 : -1;
-            int x = pos%8;
-            int y = pos/8;
-            boolean rook = direction % 2 == 0; // if false, assume bishop.
-
-            // Traverse through and find bishops / rooks that put the spot in check.
-            while(true) {
-                x += dx;
-                y += dy;
-                if (x > 7 || x < 0 || y > 7 || y < 0) break;
-                int currentPos = (x + 8*y);
-                if (!(empty(currentPos) || (king(currentPos) && (forWhite ? white(currentPos) : black(currentPos))))) {
-                    if (white(currentPos) == forWhite) {
-                        break;
-                    } else {
-                        if ((!rook || rook(currentPos)) && (rook || bishop(currentPos))) {
-                            return true;
-                        }
-                        break;
-                    }
-                }
+        for (long pieces = own & ~_pawns; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            bitMovesToMoves(from, pieceTargets(from, occupancy) & ~own, 0, output);
+        }
+        for (long pawns = own & _pawns; pawns != 0; pawns &= pawns - 1) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            if (forHuman) {
+                bitMovesToMoves(from, pawnTargets(from, forWhite), 0, output);
+            } else {
+                pawnMovesToMoves(from, pawnTargets(from, forWhite), output);
             }
         }
+    }
 
-        // Check for knights.
-        long knightSpots = knightAttacks[pos];
+    /**
+     * Writes every pseudo-legal capture and promotion for the given color into output, replacing whatever it held before.
+     * -> Pseudo-legal moves follow how the pieces move, but may leave the mover's king in check: check each one with isLegal first.
+     * -> Promotions always come as one move per piece choice, since this is for the bot.
+     */
+    public void generateCaptures(boolean forWhite, MoveBuffer output) {
+        output.clear();
+        long own = forWhite ? _whites : _blacks;
+        long enemy = forWhite ? _blacks : _whites;
+        long occupancy = _whites | _blacks;
 
-        // Check for kings.
-        long kingSpots = 0;
-        int x = pos%8;
-        int y = pos/8;
-        for (int direction = 0; direction < 8; direction++) {
-            int dx = (direction == 0 || direction == 4) ? 0 : (direction < 4) ? 1 : -1;
-            int dy = (direction == 2 || direction == 6) ? 0 : (direction > 2 && direction < 6) ? 1 : -1;
-            if (x + dx < 0 || x + dx > 7 || y + dy < 0 || y + dy > 7) continue;
-            kingSpots = setBit(kingSpots, true, (x+dx) + 8*(y+dy));
+        for (long pieces = own & ~_pawns; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            bitMovesToMoves(from, pieceTargets(from, occupancy) & enemy, 0, output);
         }
 
-        // Check for pawns.
-        long pawnCheckSpots = 0;
-        if (forWhite ? pos / 8 != 7 : pos / 8 != 0) {
-            // Left:
-            if (pos % 8 != 0) {
-                pawnCheckSpots = setBit(pawnCheckSpots, true, (forWhite ? pos + 7 : pos - 9));
-            }
-            // Right:
-            if (pos % 8 != 7) {
-                pawnCheckSpots = setBit(pawnCheckSpots, true, (forWhite ? pos + 9 : pos - 7));
-            }
+        long captureTargets = enemy | PROMOTION_RANKS | enPassantTarget(forWhite);
+        for (long pawns = own & _pawns; pawns != 0; pawns &= pawns - 1) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawnMovesToMoves(from, pawnTargets(from, forWhite) & captureTargets, output);
         }
+    }
 
-        // Now, go through every square, and if any of them are a pawn, king, or knight putting pos in check, return true.
-        for (int i = 0; i < 64; i++) {
-            if (!(forWhite ? black(i) : white(i))) continue; // Not right color.
+    /**
+     * Writes every pseudo-legal move that generateCaptures doesn't for the given color into output, replacing whatever it held before.
+     * -> Castles are only added if they're fully legal.
+     */
+    public void generateQuiets(boolean forWhite, MoveBuffer output) {
+        output.clear();
+        long own = forWhite ? _whites : _blacks;
+        long occupancy = _whites | _blacks;
 
-            if (((knightSpots>>i) & 1) != 0 && knight(i)) {
-                return true;
-            }
+        for (long pieces = own & ~_pawns; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            bitMovesToMoves(from, pieceTargets(from, occupancy) & ~occupancy, 0, output);
+            if (king(from)) addCastlingMoves(from, forWhite, output);
+        }
 
-            if (((kingSpots>>i) & 1) != 0 && king(i)) {
-                return true;
-            }
+        long quietTargets = ~(occupancy | PROMOTION_RANKS | enPassantTarget(forWhite));
+        for (long pawns = own & _pawns; pawns != 0; pawns &= pawns - 1) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawnMovesToMoves(from, pawnTargets(from, forWhite) & quietTargets, output);
+        }
+    }
+
+    /**
+     * @param move a pseudo-legal move for the given color in this position.
+     * @return true if making move wouldn't leave the mover's king attacked.
+     */
+    public boolean isLegal(int move, boolean forWhite) {
+        int from = MoveUtils.getStart(move);
+        int to = MoveUtils.getEnd(move);
+        long ownKing = _kings & (forWhite ? _whites : _blacks);
+        if (ownKing == 0) return true; // Nothing to expose.
+        long captured = 1L << (MoveUtils.isEnPassant(move) ? (forWhite ? to - 8 : to + 8) : to);
+        long occupancy = ((_whites | _blacks) & ~(1L << from) & ~captured) | (1L << to);
+        int kingPos = ((ownKing >>> from) & 1) != 0 ? to : Long.numberOfTrailingZeros(ownKing);
+        return (attackersTo(kingPos, occupancy) & (forWhite ? _blacks : _whites) & ~captured) == 0;
+    }
+
+    /**
+     * For moves that didn't come from this position's move generation, like a hash move that may belong to another position.
+     * @return true if move is one that generateCaptures or generateQuiets would produce here.
+     */
+    public boolean isPseudoLegal(int move, boolean forWhite) {
+        int from = MoveUtils.getStart(move);
+        int to = MoveUtils.getEnd(move);
+        long own = forWhite ? _whites : _blacks;
+        if (!getBit(own, from) || getBit(own, to)) return false;
+
+        long targets;
+        if (pawn(from)) {
+            targets = pawnTargets(from, forWhite);
+        } else {
+            targets = pieceTargets(from, _whites | _blacks) & ~own;
+            if (king(from) && (to - from == 2 || from - to == 2) && canCastle(forWhite, to)) targets |= 1L << to;
+        }
+        return getBit(targets, to) && move == MoveUtils.generateMove(from, to, this, MoveUtils.getPawnChoice(move));
+    }
+
+    /**
+     * @return the squares the (non-pawn) piece at from attacks.
+     */
+    private long pieceTargets(int from, long occupancy) {
+        switch (_pieces[from] < 0 ? -_pieces[from] : _pieces[from]) {
+            case 2: return Attacks.knight(from);
+            case 3: return Attacks.bishop(from, occupancy);
+            case 4: return Attacks.rook(from, occupancy);
+            case 5: return Attacks.queen(from, occupancy);
+            case 6: return Attacks.king(from);
+            default: return 0;
+        }
+    }
+
+    /**
+     * @return every square the pawn at from can move to, ignoring pins and checks: pushes, captures, and en passant.
+     */
+    private long pawnTargets(int from, boolean forWhite) {
+        long empty = ~(_whites | _blacks);
+        long targets = Attacks.pawn(forWhite, from) & ((forWhite ? _blacks : _whites) | enPassantTarget(forWhite));
+        int inFront = forWhite ? from + 8 : from - 8;
+        if (inFront >= 0 && inFront < 64 && getBit(empty, inFront)) {
+            targets |= 1L << inFront;
+            int inFrontTwo = forWhite ? from + 16 : from - 16;
+            if ((forWhite ? from / 8 <= 1 : from / 8 >= 6) && getBit(empty, inFrontTwo)) targets |= 1L << inFrontTwo;
+        }
+        return targets;
+    }
 
-            if (((pawnCheckSpots>>i) & 1) != 0 && pawn(i)) {
-                return true;
+    /**
+     * @return the square a pawn of color forWhite would land on by capturing en passant, as a bitboard, or 0 if it can't.
+     */
+    private long enPassantTarget(boolean forWhite) {
+        if (!BoardInfo.lastMoveWasDoublePawnMove(_info)) return 0;
+        int doublePawn = BoardInfo.positionOfDoublePawn(_info);
+        if (!getBit(forWhite ? _blacks : _whites, doublePawn)) return 0;
+        int target = forWhite ? doublePawn + 8 : doublePawn - 8;
+        return empty(target) ? 1L << target : 0;
+    }
+
+    /**
+     * Like bitMovesToMoves, but a move onto the first or last rank becomes one promotion per piece choice.
+     */
+    private void pawnMovesToMoves(int from, long targets, MoveBuffer output) {
+        for (; targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            if (getBit(PROMOTION_RANKS, to)) {
+                for (int choice = 2; choice <= 5; choice++) output.add(MoveUtils.generateMove(from, to, this, choice));
+            } else {
+                output.add(MoveUtils.generateMove(from, to, this, 0));
             }
         }
-        return false;
+    }
+
+    private void addCastlingMoves(int kingPos, boolean forWhite, MoveBuffer output) {
+        int queenSide = forWhite ? 2 : 58;
+        if (canCastle(forWhite, queenSide)) output.add(MoveUtils.generateMove(kingPos, queenSide, this, 0));
+        if (canCastle(forWhite, queenSide + 4)) output.add(MoveUtils.generateMove(kingPos, queenSide + 4, this, 0));
+    }
+
+    /**
+     * @param to the square the king lands on: 2 or 6 for white, 58 or 62 for black.
+     * @return true if castling to to is legal. The king may not castle out of, through, or into check.
+     */
+    private boolean canCastle(boolean forWhite, int to) {
+        boolean queenSide = to % 8 == 2;
+        boolean kingMoved = forWhite ? BoardInfo.whiteKingHasMoved(_info) : BoardInfo.blackKingHasMoved(_info);
+        boolean rookMoved = forWhite ? (queenSide ? BoardInfo.whiteCastleA1HasMoved(_info) : BoardInfo.whiteCastleH1HasMoved(_info))
+                                     : (queenSide ? BoardInfo.blackCastleA7HasMoved(_info) : BoardInfo.blackCastleH7HasMoved(_info));
+        if (kingMoved || rookMoved) return false;
+
+        int corner = queenSide ? to - 2 : to + 1;
+        int passes = queenSide ? to + 1 : to - 1;
+        long mustBeEmpty = queenSide ? 7L << (corner + 1) : 3L << passes;
+        return getBit((forWhite ? _whites : _blacks) & _rooks & ~_bishops, corner) && ((_whites | _blacks) & mustBeEmpty) == 0 &&
+                !kingIsInCheck(forWhite) && !positionIsInCheck(passes, forWhite) && !positionIsInCheck(to, forWhite);
+    }
+
+    public boolean kingIsInCheck(boolean whiteKing) {
+        if (!_rules.hasKing(whiteKing)) return false;
+        return positionIsInCheck(Long.numberOfTrailingZeros(_kings & (whiteKing ? _whites : _blacks)), whiteKing);
+    }
+
+    /**
+     * @param pos the square to check.
+     * @param forWhite true if pos is being checked for white (so black pieces are the attackers).
+     * @return true if a piece of the other color attacks pos. The king of color forWhite doesn't block,
+     *         so squares behind the king along a checking line count as attacked.
+     */
+    private boolean positionIsInCheck(int pos, boolean forWhite) {
+        long ownKing = _kings & (forWhite ? _whites : _blacks);
+        return (attackersTo(pos, (_whites | _blacks) & ~ownKing) & (forWhite ? _blacks : _whites)) != 0;
+    }
+
+    /**
+     * @param square the square being attacked.
+     * @param occupancy the pieces that block sliding attacks - usually _whites | _blacks.
+     * @return a bitboard of every piece, of either color, that attacks square.
+     */
+    public long attackersTo(int square, long occupancy) {
+        return (Attacks.pawn(false, square) & _pawns & _whites)
+                | (Attacks.pawn(true, square) & _pawns & _blacks)
+                | (Attacks.knight(square) & _knights)
+                | (Attacks.king(square) & _kings)
+                | (Attacks.bishop(square, occupancy) & _bishops)
+                | (Attacks.rook(square, occupancy) & _rooks);
     }
 
     public int getPoints(boolean endgame) {
@@ -275,10 +530,13 @@ public class Board {
     }
 
     private boolean isDrawThreeFoldRepetition() {
-        return _moveHistorySize >= 9 && MoveUtils.equal(_moveHistory[_moveHistorySize-1], _moveHistory[_moveHistorySize-5], _moveHistory[_moveHistorySize-9]) &&
-                MoveUtils.equal(_moveHistory[_moveHistorySize-2], _moveHistory[_moveHistorySize-6]) &&
-                MoveUtils.equal(_moveHistory[_moveHistorySize-3], _moveHistory[_moveHistorySize-7]) &&
-                MoveUtils.equal(_moveHistory[_moveHistorySize-4], _moveHistory[_moveHistorySize-8]); // Draw game.
+        // A position can only repeat since the last capture or pawn move, and only every other move (same side to move).
+        int limit = Math.min(BoardInfo.numMovesSinceProgress(_info), _moveHistorySize);
+        int repetitions = 0;
+        for (int i = 4; i <= limit; i += 2) {
+            if (_hashHistory[_moveHistorySize - i] == _hash && ++repetitions == 2) return true; // Draw game.
+        }
+        return false;
     }
 
     public boolean isDraw() {
@@ -331,8 +589,7 @@ public class Board {
         return out.toString();
     }
 
-    private List<Long> getPawnMoves(int pos, KingSafety safety, boolean forHuman) {
-        List<Long> moves = new ArrayList<>();
+    private void getPawnMoves(int pos, KingSafety safety, boolean forHuman, MoveBuffer moves) {
         boolean isWhite = white(pos);
 
         boolean isPromotion = isWhite ? (pos/8 == 6) : (pos/8 == 1);
@@ -352,7 +609,7 @@ public class Board {
 
         if (spaceInFront && (!safety.kingInCheck || ((safety.blockCheckSpots >> inFront) & 1) != 0) &&
                 (((safety.pinnedPieces>>pos)&1l) == 0 || ((safety.pinnedMoveOptions[pos]>>inFront)&1l) != 0)) {
-            moves.addAll(getMoveAndPromotion(pos, inFront, isPromotion, forHuman));
+            getMoveAndPromotion(pos, inFront, isPromotion, forHuman, moves);
         }
 
         int inFrontTwo = isWhite ? pos + 16 : pos - 16;
@@ -365,32 +622,30 @@ public class Board {
         int toLeft = isWhite ? pos + 7 : pos - 9;
         if (((safety.pinnedPieces>>pos) & 1L) == 0 || ((safety.pinnedMoveOptions[pos] >> toLeft) & 1) != 0) {
             if (canTakeLeft && (!safety.kingInCheck || ((safety.blockCheckSpots >> (toLeft)) & 1) != 0)) {
-                moves.addAll(getMoveAndPromotion(pos, toLeft, isPromotion, forHuman));
-            }
-
-            if (enPassantLeft && (!safety.kingInCheck || ((safety.blockCheckSpots >> (toLeft)) & 1) != 0)) {
-                moves.add(MoveUtils.generateMove(pos, toLeft, this, 0));
+                getMoveAndPromotion(pos, toLeft, isPromotion, forHuman, moves);
             }
         }
+        if (enPassantLeft) {
+            // En passant takes two pawns off one rank, and can capture a checking pawn without landing on its square,
+            // so KingSafety doesn't cover it: check the position after the capture directly.
+            int move = MoveUtils.generateMove(pos, toLeft, this, 0);
+            if (isLegal(move, isWhite)) moves.add(move);
+        }
 
 
         int toRight = isWhite ? pos + 9 : pos - 7;
         if (((safety.pinnedPieces>>pos) & 1L) == 0 || ((safety.pinnedMoveOptions[pos] >> toRight) & 1) != 0) {
             if (canTakeRight && (!safety.kingInCheck || ((safety.blockCheckSpots >> (toRight)) & 1) != 0)) {
-                moves.addAll(getMoveAndPromotion(pos, toRight, isPromotion, forHuman));
-            }
-
-            if (enPassantRight && (!safety.kingInCheck || ((safety.blockCheckSpots >> (toRight)) & 1) != 0)) {
-                moves.add(MoveUtils.generateMove(pos, toRight, this, 0));
+                getMoveAndPromotion(pos, toRight, isPromotion, forHuman, moves);
             }
         }
-        return moves;
+        if (enPassantRight) {
+            int move = MoveUtils.generateMove(pos, toRight, this, 0);
+            if (isLegal(move, isWhite)) moves.add(move);
+        }
     }
 
-
-    private List<Long> getMoveAndPromotion(int from, int to, boolean isPromotion, boolean forHuman) {
-        List<Long> moves = new ArrayList<>();
-
+    private void getMoveAndPromotion(int from, int to, boolean isPromotion, boolean forHuman, MoveBuffer moves) {
         if (!isPromotion) {
             moves.add(MoveUtils.generateMove(from, to, this, 0));
         } else {
@@ -403,24 +658,19 @@ public class Board {
                 moves.add(MoveUtils.generateMove(from, to, this, 5));
             }
         }
-
-        return moves;
     }
 
     /**
      * @param startPos the start position of all moves in moves.
      * @param moves the bitboard of moves from startPos.
      * @param pawnChoice the default pawn choice for promotion moves - 0 = user input, 2 = knight, 3 = bishop, etc.
-     * @return a list of moves from startPos.
+     * @param output the buffer each move from startPos is added to.
      */
-    private List<Long> bitMovesToMoves(int startPos, long moves, int pawnChoice) {
-        List<Long> output = new ArrayList<>();
-        for (int i = 0; i < 64; i++) {
-            if (getBit(moves, i)) {
-                 output.add(MoveUtils.generateMove(startPos, i, this, pawnChoice));
-            }
+    private void bitMovesToMoves(int startPos, long moves, int pawnChoice, MoveBuffer output) {
+        while (moves != 0) {
+            output.add(MoveUtils.generateMove(startPos, Long.numberOfTrailingZeros(moves), this, pawnChoice));
+            moves &= moves - 1;
         }
-        return output;
     }
 
     /**
@@ -429,206 +679,82 @@ public class Board {
      * @param bishop if bishop moves should be included in the output.
      * @param knight if knight moves should be included in the output.
      * @param forWhite if the piece to be moved is white.
-     * @param maxDist the max distance of the traversal. Should be 7 for rooks, bishops, queens, 1 for kings and knights.
-     * @return a bitBoard representing each square as 1 if the piece at startPos can move into it, and 0 if not.
+     * @param output the buffer the legal moves from startPos are added to.
      */
-    private List<Long> getLineMoves(int startPos, boolean rook, boolean bishop, boolean knight, boolean forWhite, int maxDist, KingSafety safety) {
-        List<Long> output = new ArrayList<>();
+    private void getLineMoves(int startPos, boolean rook, boolean bishop, boolean knight, boolean forWhite, KingSafety safety, MoveBuffer output) {
         if (safety.kingInCheck && safety.kingDoubleCheck && !king(startPos)) {
-            return output;
+            return;
         }
 
-        // Rook moves
-        if (rook) {
-            for (int i = 0; i < 4; i++) {
-                int dx = (i == 1) ? 1 : (i == 3) ? -1 : 0;
-                int dy = (i == 2) ? 1 : (i == 0) ? -1 : 0;
-                output.addAll(getMovesInDirection(startPos, forWhite, dx, dy, maxDist, safety));
-            }
-        }
+        // Look up every square the piece attacks, then drop own pieces and anything the king's safety rules out.
+        long occupancy = _whites | _blacks;
+        long targets = 0;
+        if (rook) targets |= Attacks.rook(startPos, occupancy);
+        if (bishop) targets |= Attacks.bishop(startPos, occupancy);
+        if (knight) targets |= Attacks.knight(startPos);
 
-        // Bishop moves
-        if (bishop) {
-            for (int i = 0; i < 4; i++) {
-                int dx = (i < 2) ? 1 : -1;
-                int dy = (i == 1 || i == 2) ? 1 : -1;
-                output.addAll(getMovesInDirection(startPos, forWhite, dx, dy, maxDist, safety));
-            }
-        }
+        targets &= ~(forWhite ? _whites : _blacks);
+        if (((safety.pinnedPieces>>startPos) & 1L) != 0) targets &= safety.pinnedMoveOptions[startPos];
+        if (safety.kingInCheck) targets &= safety.blockCheckSpots;
 
-        // Knight moves
-        if (knight) {
-            for (byte i = 0; i < 8; i++) {
-                int dx = (i == 0 || i == 3) ? 1 : (i == 4 || i == 7) ? -1 : (i == 1 || i == 2) ? 2 : -2;
-                int dy = (i == 0 || i == 7) ? -2 : (i == 1 || i == 6) ? -1 : (i == 2 || i == 5) ? 1 : 2;
-                output.addAll(getMovesInDirection(startPos, forWhite, dx, dy, maxDist, safety));
-            }
-        }
-
-        return output;
-    }
-
-    /**
-     * @param startPos the start position of the traversal (will not be included in output).
-     * @param forWhite true if the piece moving is white (will not be allowed to capture white pieces).
-     * @param dx the change in x of the traversal.
-     * @param dy the change in y of the traversal.
-     * @param maxDist the max distance to be traversed.  Use 7 or more for everything, and 1 for knights and kings.
-     * @return a bit board of all spots that the piece in startPos could move into along the direction specified
-     */
-    private List<Long> getMovesInDirection(int startPos, boolean forWhite, int dx, int dy, int maxDist, KingSafety safety) {
-        List<Long> output = new ArrayList<>();
-        int x = startPos%8;
-        int y = startPos/8;
-
-        for (int i = 0; i < maxDist; i++) {
-            x += dx;
-            y += dy;
-            if (x < 0 || x > 7 || y < 0 || y > 7) break;
-            int currentPos = x + 8*y;
-
-            // If this piece is pinned, and this move will put the king in check, continue.
-            if (((safety.pinnedPieces>>startPos) & 1L) == 1 && ((safety.pinnedMoveOptions[startPos]>>currentPos) & 1) == 0) {
-                if (empty(currentPos)) continue; else break;
-            }
-
-            // If the spot is empty, add to output and continue.
-            if (empty(currentPos)) {
-                if (!(safety.kingInCheck && ((safety.blockCheckSpots>>currentPos) & 1L) == 0)) {
-                    output.add(MoveUtils.generateMove(startPos, currentPos, this, 0));
-                }
-                continue;
-            }
-
-            // If the spot is of the other color, add to output.
-            if (white(currentPos) != forWhite && !empty(currentPos) && !(safety.kingInCheck && ((safety.blockCheckSpots>>currentPos) & 1L) == 0)) {
-                output.add(MoveUtils.generateMove(startPos, currentPos, this, 0));
-            }
-
-            // Quit, since this position wasn't empty.
-            break;
-        }
-        return output;
+        bitMovesToMoves(startPos, targets, 0, output);
     }
 
     /**
      * @return the king safety of this board, for use in calculating all LEGAL moves from this board.
      */
     private KingSafety getKingSafety(boolean forWhite) {
-
-        // KingSafety generation outline: first go to king, and then
-        // <> Go outward in each direction and
-        //   > get pinned pieces
-        //   > get pieces giving check (including how many)
-        //   > get block check spots.
-        //
-        // <> Check for knights and pawns that could put the spot in check.
-        //
-        // <> Go to each spot the king could move to
-        //   > Check if there is a piece putting that spot in check
-
         int kingPos = Long.numberOfTrailingZeros((forWhite ? _whites : _blacks) & _kings);
         if (kingPos == 64) {
             throw new RuntimeException("No king for color " + (forWhite ? "white" : "black") + " on board \n" + this + "with _kings: " + bitString(_kings)
             + "\nand whites: " + bitString(_whites) + "\nand blacks " + bitString(_blacks));
         }
 
-        KingSafety output = new KingSafety();
-
-        output.pinnedMoveOptions = new long[64];
-        output.kingInCheck = kingIsInCheck(forWhite);
-        int numPiecesGivingCheck = 0;
-
-        // Loop for each direction going out of king ... finds all blockable checks and pinned pieces.
-        for (int direction = 0; direction < 8; direction++) {
-            int dx = (direction == 0 || direction == 4) ? 0 : (direction < 4) ? -1 : 1;
-            int dy = (direction == 2 || direction == 6) ? 0 : (direction < 2 || direction > 6) ? -1 : 1;
-            int x = kingPos%8;
-            int y = kingPos/8;
-
-            long blockableCheckSpots = 0;
-            long pinnedPieces = 0;
-            boolean moreThanOnePinnedPiece = false; // If this is true, then there are no pinned pieces in this direction.
-            long piecesGivingCheck = 0;
-
-            // Traverse through and find all important info.
-            while(true) {
-                x += dx;
-                y +=  dy;
-                if (x < 0 || x > 7 || y < 0 || y > 7) break;
-                int pos = x + 8*y;
-                if (empty(pos)) {
-                    blockableCheckSpots = setBit(blockableCheckSpots, true, pos);
-                } else if (white(pos) == forWhite) {
-                    if (pinnedPieces == 0) {
-                        pinnedPieces = setBit(pinnedPieces, true, pos);
-                    } else {
-                        moreThanOnePinnedPiece = true;
-                    }
-                } else {
-                    if ((((dy == 0 || dx == 0) && rook(pos)) || (dx != 0 && dy != 0 && bishop(pos)))) {
-                        piecesGivingCheck = setBit(piecesGivingCheck, true, pos);
-                        blockableCheckSpots = setBit(blockableCheckSpots, true, pos);
-                    }
-                    break;
-                }
-            }
-
-            // Untangle the results:
-            if (piecesGivingCheck != 0) {
-                if (pinnedPieces == 0) {
-                    // The piece giving check is actually giving check.
-                    numPiecesGivingCheck++;
-
-                    // The blockable check spots are actually spots that can block the check.
-                    output.blockCheckSpots = output.blockCheckSpots | blockableCheckSpots;
-                } else if (!moreThanOnePinnedPiece) {
-                    // The pinned pieces are actually pinned.
-                    output.pinnedPieces = output.pinnedPieces | pinnedPieces;
-                    output.pinnedMoveOptions[Long.numberOfTrailingZeros(pinnedPieces)] = blockableCheckSpots;
-                }
-            }
-        }
-
-        // Find all knights putting the king in check
-        long knightCheckSpots = knightAttacks[kingPos];
-
-        // Pawn attacks:
-        long pawnCheckSpots = 0;
-        if (forWhite ? kingPos / 8 != 7 : kingPos / 8 != 0) {
-            // Left:
-            if (kingPos % 8 != 0) {
-                pawnCheckSpots = setBit(pawnCheckSpots, true, forWhite ? kingPos + 7 : kingPos - 9);
-            }
-            // Right:
-            if (kingPos % 8 != 7) {
-                pawnCheckSpots = setBit(pawnCheckSpots, true, forWhite ? kingPos + 9 : kingPos - 7);
-            }
+        // Reuse this board's KingSafety, so generating moves doesn't allocate.
+        // pinnedMoveOptions is only ever read for squares in pinnedPieces, so it doesn't need clearing.
+        if (_safety == null) {
+            _safety = new KingSafety();
+            _safety.pinnedMoveOptions = new long[64];
         }
+        KingSafety output = _safety;
+        output.pinnedPieces = 0;
+        output.kingMoveOptions = 0;
+        output.blockCheckSpots = 0;
 
-        // Now, go through each square, and if the square is a pawn or knight that can put the king in check, mark that.
-        for (int i = 0; i < 64; i++) {
-            // If the piece is not of the opposite color, skip it.
-            if (!(forWhite ? black(i) : white(i))) continue;
+        long own = forWhite ? _whites : _blacks;
+        long enemy = forWhite ? _blacks : _whites;
+        long occupancy = _whites | _blacks;
 
-            // Check for knights and pawns:
-            if ((((knightCheckSpots >> i) & 1L) != 0 && knight(i)) || (((pawnCheckSpots >> i) & 1L) != 0 && pawn(i))) {
-                numPiecesGivingCheck++;
-                output.blockCheckSpots = setBit(output.blockCheckSpots, true, i);
-            }
+        // Every piece giving check. A check can be stopped by capturing the checker or by stepping into the line between it and the king.
+        long checkers = attackersTo(kingPos, occupancy) & enemy & ~_kings;
+        for (long bits = checkers; bits != 0; bits &= bits - 1) {
+            int checker = Long.numberOfTrailingZeros(bits);
+            output.blockCheckSpots |= Attacks.between(kingPos, checker) | (1L << checker);
         }
+        output.kingInCheck = checkers != 0;
 
         // If more than one piece is giving check, mark as double check.
         // Double checks can only be stopped by moving the king, so this avoids wasting time on other types of moves in that case.
-        output.kingDoubleCheck = numPiecesGivingCheck > 1;
+        output.kingDoubleCheck = Long.bitCount(checkers) > 1;
+
+        // Sliders that would give check if only our own pieces were removed. If exactly one of our pieces is in the way, it's pinned,
+        // and may only move along the line between the king and the slider (capturing the slider included).
+        long snipers = (Attacks.rook(kingPos, enemy) & _rooks & enemy) | (Attacks.bishop(kingPos, enemy) & _bishops & enemy);
+        for (long bits = snipers; bits != 0; bits &= bits - 1) {
+            int sniper = Long.numberOfTrailingZeros(bits);
+            long line = Attacks.between(kingPos, sniper);
+            long blockers = line & occupancy;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0 && (blockers & own) != 0) {
+                output.pinnedPieces |= blockers;
+                output.pinnedMoveOptions[Long.numberOfTrailingZeros(blockers)] = line | (1L << sniper);
+            }
+        }
 
         // Now, check each spot near the king, and check if the king can move there.
-        for (int direction = 0; direction < 8; direction++) {
-            int x = (kingPos%8) + ((direction == 0 || direction == 4) ? 0 : (direction < 4) ? 1 : -1);
-            int y = (kingPos/8) + ((direction == 2 || direction == 6) ? 0 : (direction > 2 && direction < 6) ? 1 : -1);
-            if (x > 7 || x < 0 || y > 7 || y < 0) continue;
-            int spot = x + 8*y;
-            if (!positionIsInCheck(spot, forWhite) && (forWhite ? !white(spot) : !black(spot))) output.kingMoveOptions = setBit(output.kingMoveOptions, true, spot);
+        long kinglessOccupancy = occupancy & ~(1L << kingPos);
+        for (long spots = Attacks.king(kingPos) & ~own; spots != 0; spots &= spots - 1) {
+            int spot = Long.numberOfTrailingZeros(spots);
+            if ((attackersTo(spot, kinglessOccupancy) & enemy) == 0) output.kingMoveOptions |= 1L << spot;
         }
 
         return output;
@@ -650,70 +776,53 @@ public class Board {
 
     public boolean pawn(int pos) { return getBit(_pawns, pos); }
 
-    public boolean knight(int pos) { return (white(pos) || black(pos)) && (!king(pos) && !pawn(pos) && !bishop(pos) && !rook(pos)); }
+    public boolean knight(int pos) { return getBit(_knights, pos); }
 
     public void copy(int from, int to) {
-        _whites = setBit(_whites, getBit(_whites, from), to);
-        _blacks = setBit(_blacks, getBit(_blacks, from), to);
-        _kings = setBit(_kings, getBit(_kings, from), to);
-        _bishops = setBit(_bishops, getBit(_bishops, from), to);
-        _rooks = setBit(_rooks, getBit(_rooks, from), to);
-        _pawns = setBit(_pawns, getBit(_pawns , from), to);
+        setPiece(to, _pieces[from]);
     }
 
     public void wipe(int pos) {
-        _whites = setBit(_whites, false, pos);
-        _blacks = setBit(_blacks, false, pos);
-        _kings = setBit(_kings, false, pos);
-        _bishops = setBit(_bishops, false, pos);
-        _rooks = setBit(_rooks, false, pos);
-        _pawns = setBit(_pawns,  false, pos);
+        setPiece(pos, 0);
     }
 
     public int pieceAt(int pos) {
-        int pieceMult = white(pos) ? 1 : -1;
-        int piece = 0;
-        if (king(pos)) {
-            piece = 6;
-        } else if (pawn(pos)) {
-            piece = 1;
-        } else if (knight(pos)) {
-            piece = 2;
-        } else if (bishop(pos)) {
-            piece = 3;
-        } else if (rook(pos)) {
-            piece = 4;
-        }
-        if (queen(pos)) {
-            piece = 5;
-        }
-        return piece * pieceMult;
+        return _pieces[pos];
     }
 
     public void setPiece(int pos, int piece) {
+        int oldPiece = _pieces[pos];
+        if (oldPiece == piece) return;
+        if (oldPiece != 0) togglePiece(pos, oldPiece);
+        if (piece != 0) togglePiece(pos, piece);
+        _pieces[pos] = (byte) piece;
+    }
+
+    /**
+     * Flips the bits for piece at pos in the bitboards, which adds it if it wasn't there and removes it if it was.
+     * The piece counts and material key follow along.
+     */
+    private void togglePiece(int pos, int piece) {
+        long bit = 1L << pos;
         if (piece > 0) {
-            _whites = setBit(_whites, true, pos);
-            _blacks = setBit(_blacks, false, pos);
-        } else if (piece < 0) {
-            _blacks = setBit(_blacks, true, pos);
-            _whites = setBit(_whites, false, pos);
+            _whites ^= bit;
         } else {
-            _whites = setBit(_whites, false, pos);
-            _blacks = setBit(_blacks, false, pos);
+            _blacks ^= bit;
+        }
+        switch (piece < 0 ? -piece : piece) {
+            case 1: _pawns ^= bit; break;
+            case 2: _knights ^= bit; break;
+            case 3: _bishops ^= bit; break;
+            case 4: _rooks ^= bit; break;
+            case 5: _bishops ^= bit; _rooks ^= bit; break;
+            case 6: _kings ^= bit; break;
         }
-        _kings = setBit(_kings, (piece == 6 || piece == -6), pos);
-        _pawns = setBit(_pawns, (piece == 1 || piece == -1), pos);
-        _bishops = setBit(_bishops, (piece == 3 || piece == -3 || piece == 5 || piece == -5), pos);
-        _rooks = setBit(_rooks, (piece == 4 || piece == -4 || piece == 5 || piece == -5), pos);
-    }
 
-    private static long setBit (long bits, boolean set, int offset) {
-        if (set) {
-            bits |= (1L << offset);
+        if (((piece > 0 ? _whites : _blacks) & bit) != 0) {
+            _materialKey ^= Zobrist.materialKey(piece, _pieceCounts[piece + 6]++);
         } else {
-            bits &= ~(1L << offset);
+            _materialKey ^= Zobrist.materialKey(piece, --_pieceCounts[piece + 6]);
         }
-        return bits;
     }
 
     private static boolean getBit(long bits, int pos) {
@@ -729,16 +838,19 @@ public class Board {
     }
 
     public Board clone() {
-        Board output = new Board(_whites, _blacks, _pawns, _bishops, _rooks, _kings, _info);
-        return output;
+        return new Board(this);
+    }
+
+    /**
+     * @param piece the piece, in the Board format (negative for black).
+     * @return how many of that piece are on the board.
+     */
+    public int pieceCount(int piece) {
+        return _pieceCounts[piece + 6];
     }
 
     public boolean getIsEndgame() {
-        int count = 0;
-        for (int i = 0; i < 64; i++) {
-            if (!empty(i)) count++;
-        }
-        return count < 14;
+        return Long.bitCount(_whites | _blacks) < 14;
     }
 
     public String toTextString() {
@@ -0,0 +1,69 @@
+package board;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Streams positions out of a FEN or EPD file, one line at a time.
+ * -> Only the current line is ever in memory, so files with millions of positions are fine.
+ * -> Blank lines and lines starting with '#' are skipped.
+ * -> Usage: try (EpdReader reader = EpdReader.open(path)) { for (Position p; (p = reader.next()) != null; ) { ... } }
+ */
+
+public class EpdReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader _reader;
+    private int _lineNumber;
+
+    public EpdReader(Reader reader) {
+        _reader = new BufferedReader(reader, BUFFER_SIZE);
+    }
+
+    public EpdReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    public static EpdReader open(Path path) throws IOException {
+        return new EpdReader(Files.newInputStream(path));
+    }
+
+    /**
+     * @return the next position, or null at the end of the file.
+     * @throws IllegalArgumentException if a line can't be read as a position. The message includes the line number.
+     */
+    public Position next() throws IOException {
+        String line;
+        while ((line = _reader.readLine()) != null) {
+            _lineNumber++;
+            int i = 0;
+            while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+            if (i == line.length() || line.charAt(i) == '#') continue;
+            try {
+                return Fen.parse(line);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Line " + _lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of the line the last position came from, starting at 1.
+     */
+    public int getLineNumber() {
+        return _lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _reader.close();
+    }
+}
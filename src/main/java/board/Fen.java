@@ -0,0 +1,210 @@
+package board;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Reads and writes positions in FEN and EPD notation.
+ * -> FEN: "<pieces> <side to move> <castling> <en passant> <halfmove clock> <fullmove number>".
+ * -> EPD: the first four FEN fields, followed by operations like "bm e4; id \"test 1\";". The two clocks are optional.
+ * -> Parsing walks the characters once and builds the board directly, with no splitting or regular expressions,
+ *    so reading millions of lines (see EpdReader) is limited by the disk.
+ */
+
+public abstract class Fen {
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private static final String PIECE_LETTERS = " PNBRQK";
+
+    /**
+     * Reads a FEN or EPD line. Any EPD operations end up in the Position's operations.
+     * @throws IllegalArgumentException if line isn't a valid FEN or EPD.
+     */
+    public static Position parse(String line) {
+        int[] layout = new int[64];
+        int i = skipSpaces(line, 0);
+
+        // Piece placement, rank 8 first.
+        int x = 0;
+        int y = 7;
+        for (; i < line.length() && line.charAt(i) != ' '; i++) {
+            char c = line.charAt(i);
+            if (c == '/') {
+                if (x != 8) throw error(line, "rank " + (y + 1) + " doesn't have 8 squares");
+                x = 0;
+                y--;
+            } else if (c >= '1' && c <= '8') {
+                x += c - '0';
+            } else {
+                int piece = PIECE_LETTERS.indexOf(Character.toUpperCase(c));
+                if (piece <= 0 || x > 7 || y < 0) throw error(line, "unexpected '" + c + "'");
+                layout[8*y + x++] = Character.isUpperCase(c) ? piece : -piece;
+            }
+            if (x > 8 || y < 0) throw error(line, "too many squares");
+        }
+        if (x != 8 || y != 0) throw error(line, "the pieces don't fill 8 ranks");
+
+        // Side to move.
+        i = skipSpaces(line, i);
+        if (i >= line.length() || (line.charAt(i) != 'w' && line.charAt(i) != 'b')) throw error(line, "no side to move");
+        boolean whiteToMove = line.charAt(i++) == 'w';
+
+        // Castling rights. A missing right is stored as its rook having moved.
+        int info = BoardInfo.START_INFO;
+        i = skipSpaces(line, i);
+        int end = fieldEnd(line, i);
+        String castling = line.substring(i, end);
+        info = BoardInfo.setWhiteCastleH1HasMoved(info, castling.indexOf('K') < 0);
+        info = BoardInfo.setWhiteCastleA1HasMoved(info, castling.indexOf('Q') < 0);
+        info = BoardInfo.setBlackCastleH7HasMoved(info, castling.indexOf('k') < 0);
+        info = BoardInfo.setBlackCastleA7HasMoved(info, castling.indexOf('q') < 0);
+        i = end;
+
+        // En passant target square. BoardInfo stores the pawn that just moved two squares instead.
+        i = skipSpaces(line, i);
+        end = fieldEnd(line, i);
+        if (end - i == 2) {
+            int file = line.charAt(i) - 'a';
+            int rank = line.charAt(i + 1) - '1';
+            if (file < 0 || file > 7 || rank != (whiteToMove ? 5 : 2)) throw error(line, "bad en passant square");
+            info = BoardInfo.setLastMoveWasDoublePawnMove(info, true);
+            info = BoardInfo.setPositionOfDoublePawn(info, 8 * (whiteToMove ? 4 : 3) + file);
+        } else if (end - i != 1 || line.charAt(i) != '-') {
+            throw error(line, "bad en passant square");
+        }
+        i = end;
+
+        // The clocks, if they're there. EPD lines go straight to their operations.
+        int halfMoveClock = 0;
+        int fullMoveNumber = 1;
+        i = skipSpaces(line, i);
+        end = fieldEnd(line, i);
+        if (isNumber(line, i, end)) {
+            halfMoveClock = Integer.parseInt(line.substring(i, end));
+            i = skipSpaces(line, end);
+            end = fieldEnd(line, i);
+            if (isNumber(line, i, end)) {
+                fullMoveNumber = Integer.parseInt(line.substring(i, end));
+                i = end;
+            }
+        }
+
+        Map<String, String> operations = i < line.length() ? parseOperations(line, i) : null;
+        if (operations != null && operations.containsKey("hmvc")) halfMoveClock = Integer.parseInt(operations.get("hmvc"));
+        if (operations != null && operations.containsKey("fmvn")) fullMoveNumber = Integer.parseInt(operations.get("fmvn"));
+        info = BoardInfo.setNumMovesSinceProgress(info, Math.min(halfMoveClock, 255));
+
+        Board board = new Board(layout, info);
+        if (!whiteToMove) board._hash ^= Zobrist.sideKey();
+        return new Position(board, whiteToMove, fullMoveNumber, operations);
+    }
+
+    /**
+     * @return board as a FEN, with the full move number set to 1.
+     */
+    public static String toFen(Board board, boolean whiteToMove) {
+        return toFen(board, whiteToMove, 1);
+    }
+
+    public static String toFen(Board board, boolean whiteToMove, int fullMoveNumber) {
+        StringBuilder out = new StringBuilder(90);
+        appendEpd(out, board, whiteToMove);
+        out.append(' ').append(BoardInfo.numMovesSinceProgress(board._info) & 255).append(' ').append(fullMoveNumber);
+        return out.toString();
+    }
+
+    /**
+     * @return the first four FEN fields of board, without any operations.
+     */
+    public static String toEpd(Board board, boolean whiteToMove) {
+        StringBuilder out = new StringBuilder(80);
+        appendEpd(out, board, whiteToMove);
+        return out.toString();
+    }
+
+    private static void appendEpd(StringBuilder out, Board board, boolean whiteToMove) {
+        for (int y = 7; y >= 0; y--) {
+            int empty = 0;
+            for (int x = 0; x < 8; x++) {
+                int piece = board.pieceAt(8*y + x);
+                if (piece == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty != 0) out.append(empty);
+                empty = 0;
+                char letter = PIECE_LETTERS.charAt(Math.abs(piece));
+                out.append(piece > 0 ? letter : Character.toLowerCase(letter));
+            }
+            if (empty != 0) out.append(empty);
+            if (y != 0) out.append('/');
+        }
+
+        out.append(whiteToMove ? " w " : " b ");
+
+        int info = board._info;
+        int length = out.length();
+        if (!BoardInfo.whiteKingHasMoved(info) && !BoardInfo.whiteCastleH1HasMoved(info)) out.append('K');
+        if (!BoardInfo.whiteKingHasMoved(info) && !BoardInfo.whiteCastleA1HasMoved(info)) out.append('Q');
+        if (!BoardInfo.blackKingHasMoved(info) && !BoardInfo.blackCastleH7HasMoved(info)) out.append('k');
+        if (!BoardInfo.blackKingHasMoved(info) && !BoardInfo.blackCastleA7HasMoved(info)) out.append('q');
+        if (out.length() == length) out.append('-');
+
+        out.append(' ');
+        if (BoardInfo.lastMoveWasDoublePawnMove(info)) {
+            int square = BoardInfo.positionOfDoublePawn(info) + (whiteToMove ? 8 : -8);
+            out.append((char) ('a' + square % 8)).append((char) ('1' + square / 8));
+        } else {
+            out.append('-');
+        }
+    }
+
+    /**
+     * Reads operations like "bm e4; id \"test 1\"; D1 20;". Each one is an opcode, then an operand up to the next ';'.
+     */
+    private static Map<String, String> parseOperations(String line, int i) {
+        Map<String, String> operations = new LinkedHashMap<>();
+        while (true) {
+            i = skipSpaces(line, i);
+            while (i < line.length() && line.charAt(i) == ';') i = skipSpaces(line, i + 1);
+            if (i >= line.length()) return operations;
+
+            int end = fieldEnd(line, i);
+            while (end > i && line.charAt(end - 1) == ';') end--;
+            String opcode = line.substring(i, end);
+
+            int start = skipSpaces(line, end);
+            boolean inQuotes = false;
+            for (i = start; i < line.length() && (inQuotes || line.charAt(i) != ';'); i++) {
+                if (line.charAt(i) == '"') inQuotes = !inQuotes;
+            }
+            String operand = line.substring(start, i).trim();
+            if (operand.length() >= 2 && operand.charAt(0) == '"' && operand.charAt(operand.length() - 1) == '"') {
+                operand = operand.substring(1, operand.length() - 1);
+            }
+            operations.put(opcode, operand);
+        }
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        return i;
+    }
+
+    private static int fieldEnd(String line, int i) {
+        while (i < line.length() && !Character.isWhitespace(line.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isNumber(String line, int start, int end) {
+        if (start == end) return false;
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) < '0' || line.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    private static IllegalArgumentException error(String line, String problem) {
+        return new IllegalArgumentException("Bad FEN (" + problem + "): " + line);
+    }
+}
@@ -0,0 +1,62 @@
+package board;
+
+/*
+ * Fixed-size storage for 64 bit entries found by Zobrist key, shared between threads without locks.
+ * Perft's subtree count cache and the AI's transposition table are both built on it.
+ * -> Each slot stores (key ^ data) next to data, so a slot torn by two racing writes fails the key check instead of
+ *    handing out another position's data.
+ * -> Sized in megabytes: the biggest power of two number of 16 byte slots that fits, and at least 2.
+ *    Which slot a key goes in is up to the user (see index), so it can keep several slots per key, as buckets.
+ * -> A slot's data is EMPTY until something is put there, so users have to make sure their entries are never 0.
+ */
+
+public class HashSlots {
+    public static final long EMPTY = 0;
+
+    private final long[] _checks;
+    private final long[] _data;
+    private final int _mask;
+
+    public HashSlots(int megabytes) {
+        int slots = Integer.highestOneBit(Math.max(2, (int) Math.min(1 << 30, megabytes * (1L << 20) / 16)));
+        _checks = new long[slots];
+        _data = new long[slots];
+        _mask = slots - 1;
+    }
+
+    /**
+     * @return the slot the key maps to. There are always at least 2 slots, and a power of two of them, so a bucket of
+     *         two can be taken as (index & ~1) and the slot after it.
+     */
+    public int index(long hash) {
+        return (int) hash & _mask;
+    }
+
+    /**
+     * @return the data in the slot, if it was put there with this key, or EMPTY.
+     */
+    public long get(int index, long hash) {
+        long data = _data[index];
+        return matches(index, hash, data) ? data : EMPTY;
+    }
+
+    /**
+     * @return the data in the slot, whatever its key, to decide whether to replace it.
+     */
+    public long getData(int index) {
+        return _data[index];
+    }
+
+    /**
+     * @param data what getData returned for the slot.
+     * @return true if data was put in the slot with this key.
+     */
+    public boolean matches(int index, long hash, long data) {
+        return data != EMPTY && (_checks[index] ^ data) == hash;
+    }
+
+    public void put(int index, long hash, long data) {
+        _data[index] = data;
+        _checks[index] = hash ^ data;
+    }
+}
@@ -0,0 +1,372 @@
+package board;
+
+import game.Game;
+import moves.MoveBuffer;
+import moves.MoveUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Perft ("performance test"): counts every leaf of the legal move tree down to a fixed depth.
+ * -> The counts for well-known positions are published, so any difference means a move generation bug.
+ * -> divide() gives the count under each root move, to narrow down which move is wrong.
+ * -> Optionally caches subtree counts by Zobrist key, and splits the root moves across threads.
+ * -> main() runs the reference suite below, printing counts and nodes per second, and exits with an error on any mismatch.
+ */
+
+public abstract class Perft {
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * A position with known perft counts. expected[i] is the count at depth i + 1.
+     */
+    private static class Reference {
+        final String name;
+        final int[] layout; // null for the Game.Type start positions
+        final Game.Type type;
+        final int info;
+        final long[] expected;
+
+        Reference(String name, Game.Type type, long... expected) {
+            this(name, null, type, BoardInfo.START_INFO, expected);
+        }
+
+        Reference(String name, String rows, int info, long... expected) {
+            this(name, parseLayout(rows), null, info, expected);
+        }
+
+        private Reference(String name, int[] layout, Game.Type type, int info, long[] expected) {
+            this.name = name;
+            this.layout = layout;
+            this.type = type;
+            this.info = info;
+            this.expected = expected;
+        }
+
+        Board board() {
+            return layout == null ? new Board(type) : new Board(layout, info);
+        }
+    }
+
+    // All white to move. Layouts are written like the files in data/: rank 8 first, pieces as in Board.
+    private static final Reference[] suite = {
+            new Reference("start", Game.Type.CHESS, 20, 400, 8902, 197281, 4865609),
+            new Reference("kiwipete",
+                    "-4  0  0  0 -6  0  0 -4 " +
+                    "-1  0 -1 -1 -5 -1 -3  0 " +
+                    "-3 -2  0  0 -1 -2 -1  0 " +
+                    " 0  0  0  1  2  0  0  0 " +
+                    " 0 -1  0  0  1  0  0  0 " +
+                    " 0  0  2  0  0  5  0 -1 " +
+                    " 1  1  1  3  3  1  1  1 " +
+                    " 4  0  0  0  6  0  0  4 ",
+                    castlingInfo("KQkq"), 48, 2039, 97862, 4085603),
+            new Reference("endgame",
+                    " 0  0  0  0  0  0  0  0 " +
+                    " 0  0 -1  0  0  0  0  0 " +
+                    " 0  0  0 -1  0  0  0  0 " +
+                    " 6  1  0  0  0  0  0 -4 " +
+                    " 0  4  0  0  0 -1  0 -6 " +
+                    " 0  0  0  0  0  0  0  0 " +
+                    " 0  0  0  0  1  0  1  0 " +
+                    " 0  0  0  0  0  0  0  0 ",
+                    castlingInfo("-"), 14, 191, 2812, 43238, 674624),
+            new Reference("promotions",
+                    "-4  0  0  0 -6  0  0 -4 " +
+                    " 1 -1 -1 -1  0 -1 -1 -1 " +
+                    " 0 -3  0  0  0 -2 -3  2 " +
+                    "-2  1  0  0  0  0  0  0 " +
+                    " 3  3  1  0  1  0  0  0 " +
+                    "-5  0  0  0  0  2  0  0 " +
+                    " 1 -1  0  1  0  0  1  1 " +
+                    " 4  0  0  5  0  4  6  0 ",
+                    castlingInfo("kq"), 6, 264, 9467, 422333),
+            new Reference("talkchess",
+                    "-4 -2 -3 -5  0 -6  0 -4 " +
+                    "-1 -1  0  1 -3 -1 -1 -1 " +
+                    " 0  0 -1  0  0  0  0  0 " +
+                    " 0  0  0  0  0  0  0  0 " +
+                    " 0  0  3  0  0  0  0  0 " +
+                    " 0  0  0  0  0  0  0  0 " +
+                    " 1  1  1  0  2 -2  1  1 " +
+                    " 4  2  3  5  6  0  0  4 ",
+                    castlingInfo("KQ"), 44, 1486, 62379, 2103487),
+            new Reference("middlegame",
+                    "-4  0  0  0  0 -4 -6  0 " +
+                    " 0 -1 -1  0 -5 -1 -1 -1 " +
+                    "-1  0 -2 -1  0 -2  0  0 " +
+                    " 0  0 -3  0 -1  0  3  0 " +
+                    " 0  0  3  0  1  0 -3  0 " +
+                    " 1  0  2  1  0  2  0  0 " +
+                    " 0  1  1  0  5  1  1  1 " +
+                    " 4  0  0  0  0  4  6  0 ",
+                    castlingInfo("-"), 46, 2079, 89890, 3894594),
+            // Slaughter has no published counts, so these were recorded from this generator once the positions above matched.
+            new Reference("slaughter", Game.Type.SLAUGHTER_CHESS, 83, 6167, 528192),
+            // The published counts for the Horde start position.
+            new Reference("horde", Game.Type.HORDE, 8, 128, 1274, 23310, 265223),
+    };
+
+    /**
+     * @return the number of leaves of the legal move tree from board, depth moves deep. Single threaded, no hashing.
+     */
+    public static long perft(Board board, boolean forWhite, int depth) {
+        return count(board, forWhite, depth, newBuffers(board.getRules()), null);
+    }
+
+    /**
+     * @param threads the number of threads the root moves are split across.
+     * @param hashMegabytes the size of the subtree count cache, or 0 to not cache.
+     */
+    public static long perft(Board board, boolean forWhite, int depth, int threads, int hashMegabytes) {
+        long nodes = 0;
+        for (long count : divide(board, forWhite, depth, threads, hashMegabytes).values()) {
+            nodes += count;
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the perft count below each legal root move, in move generation order.
+     */
+    public static Map<Integer, Long> divide(Board board, boolean forWhite, int depth, int threads, int hashMegabytes) {
+        if (depth < 1 || depth > MAX_DEPTH) throw new IllegalArgumentException("Perft depth must be between 1 and " + MAX_DEPTH + ": " + depth);
+        PerftTable table = hashMegabytes > 0 ? new PerftTable(hashMegabytes) : null;
+        List<Integer> moves = board.getAllLegalMoves(forWhite, false);
+        Map<Integer, Long> output = new LinkedHashMap<>();
+
+        if (threads <= 1) {
+            MoveBuffer[] buffers = newBuffers(board.getRules());
+            for (int move : moves) {
+                board.applyMove(move);
+                output.put(move, count(board, !forWhite, depth - 1, buffers, table));
+                board.undoMove();
+            }
+            return output;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> counts = new ArrayList<>();
+            for (int move : moves) {
+                Board child = board.clone();
+                child.applyMove(move);
+                counts.add(pool.submit(() -> count(child, !forWhite, depth - 1, newBuffers(board.getRules()), table)));
+            }
+            for (int i = 0; i < moves.size(); i++) {
+                output.put(moves.get(i), counts.get(i).get());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Perft thread failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        return output;
+    }
+
+    private static long count(Board board, boolean forWhite, int depth, MoveBuffer[] buffers, PerftTable table) {
+        if (depth == 0) return 1;
+        if (table != null && depth > 1) {
+            long cached = table.get(board._hash, depth);
+            if (cached >= 0) return cached;
+        }
+
+        MoveBuffer moves = buffers[depth];
+        board.generateLegalMoves(forWhite, false, moves);
+        if (depth == 1) return moves.size();
+
+        long nodes = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            board.applyMove(moves.get(i));
+            nodes += count(board, !forWhite, depth - 1, buffers, table);
+            board.undoMove();
+        }
+
+        if (table != null) table.put(board._hash, depth, nodes);
+        return nodes;
+    }
+
+    private static MoveBuffer[] newBuffers(Rules rules) {
+        MoveBuffer[] buffers = new MoveBuffer[MAX_DEPTH + 1];
+        for (int i = 0; i < buffers.length; i++) buffers[i] = new MoveBuffer(rules.moveBufferCapacity());
+        return buffers;
+    }
+
+    /*
+     * Caches subtree counts by position key and depth, in HashSlots, so threads share it without locks.
+     */
+    private static class PerftTable {
+        private final HashSlots _slots; // count << 8 | depth
+
+        PerftTable(int megabytes) {
+            _slots = new HashSlots(megabytes);
+        }
+
+        long get(long hash, int depth) {
+            long data = _slots.get(_slots.index(hash), hash);
+            if (data == HashSlots.EMPTY || (data & 255) != depth) return -1;
+            return data >>> 8;
+        }
+
+        void put(long hash, int depth, long count) {
+            _slots.put(_slots.index(hash), hash, (count << 8) | depth);
+        }
+    }
+
+    /**
+     * @param rights the castling rights in FEN style, like "KQkq", "kq" or "-".
+     * @return a BoardInfo where every castle without a right is marked as having moved.
+     */
+    private static int castlingInfo(String rights) {
+        int info = BoardInfo.START_INFO;
+        info = BoardInfo.setWhiteCastleH1HasMoved(info, rights.indexOf('K') < 0);
+        info = BoardInfo.setWhiteCastleA1HasMoved(info, rights.indexOf('Q') < 0);
+        info = BoardInfo.setBlackCastleH7HasMoved(info, rights.indexOf('k') < 0);
+        info = BoardInfo.setBlackCastleA7HasMoved(info, rights.indexOf('q') < 0);
+        return info;
+    }
+
+    private static int[] parseLayout(String rows) {
+        String[] pieces = rows.trim().split("\\s+");
+        int[] output = new int[64];
+        int i = 0;
+        for (int y = 7; y >= 0; y--) {
+            for (int x = 0; x < 8; x++) {
+                output[8*y + x] = Integer.parseInt(pieces[i++]);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Runs the reference suite.
+     * -> Usage: Perft [-d maxDepth] [-t threads] [-h hashMegabytes] [--divide positionName depth] [--epd file]
+     * -> With --epd, the positions come from the file instead, with their counts as "D1 20; D2 400; ..." operations.
+     */
+    public static void main(String[] args) {
+        int maxDepth = MAX_DEPTH;
+        int threads = 1;
+        int hashMegabytes = 0;
+        String divideName = null;
+        int divideDepth = 0;
+        String epdPath = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-d": maxDepth = Integer.parseInt(args[++i]); break;
+                case "-t": threads = Integer.parseInt(args[++i]); break;
+                case "-h": hashMegabytes = Integer.parseInt(args[++i]); break;
+                case "--divide": divideName = args[++i]; divideDepth = Integer.parseInt(args[++i]); break;
+                case "--epd": epdPath = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        if (divideName != null) {
+            for (Reference reference : suite) {
+                if (!reference.name.equals(divideName)) continue;
+                long total = 0;
+                for (Map.Entry<Integer, Long> entry : divide(reference.board(), true, divideDepth, threads, hashMegabytes).entrySet()) {
+                    System.out.println(MoveUtils.toCoordinates(entry.getKey()) + ": " + entry.getValue());
+                    total += entry.getValue();
+                }
+                System.out.println("Total: " + total);
+                return;
+            }
+            throw new IllegalArgumentException("No reference position named " + divideName);
+        }
+
+        if (epdPath != null) {
+            runEpdSuite(epdPath, maxDepth, threads, hashMegabytes);
+            return;
+        }
+
+        List<String> failures = new ArrayList<>();
+        long totalNodes = 0;
+        long totalTime = 0;
+        for (Reference reference : suite) {
+            for (int depth = 1; depth <= Math.min(maxDepth, reference.expected.length); depth++) {
+                long start = System.nanoTime();
+                long nodes;
+                try {
+                    nodes = perft(reference.board(), true, depth, threads, hashMegabytes);
+                } catch (RuntimeException e) {
+                    String message = e.getClass().getSimpleName() + ": " + String.valueOf(e.getMessage()).split("\n")[0].trim();
+                    failures.add(reference.name + " depth " + depth + ": " + message);
+                    System.out.printf("%-10s depth %d  FAILED: %s%n", reference.name, depth, message);
+                    break;
+                }
+                long nanos = System.nanoTime() - start;
+                boolean matches = nodes == reference.expected[depth - 1];
+                System.out.printf("%-10s depth %d  %,14d nodes  %,8d ms  %,12d nps  %s%n", reference.name, depth, nodes,
+                        nanos / 1000000, nodes * 1000000000L / Math.max(1, nanos), matches ? "ok" : "EXPECTED " + reference.expected[depth - 1]);
+                if (!matches) failures.add(reference.name + " depth " + depth + ": got " + nodes + ", expected " + reference.expected[depth - 1]);
+                totalNodes += nodes;
+                totalTime += nanos;
+            }
+        }
+        System.out.printf("Total: %,d nodes in %,d ms (%,d nps)%n", totalNodes, totalTime / 1000000, totalNodes * 1000000000L / Math.max(1, totalTime));
+
+        if (!failures.isEmpty()) {
+            System.err.println("PERFT FAILED:");
+            for (String failure : failures) System.err.println("  " + failure);
+            System.exit(1);
+        }
+    }
+
+    private static void runEpdSuite(String path, int maxDepth, int threads, int hashMegabytes) {
+        List<String> failures = new ArrayList<>();
+        long totalNodes = 0;
+        long totalTime = 0;
+        int numPositions = 0;
+        int numSkipped = 0;
+        try (EpdReader reader = EpdReader.open(Paths.get(path))) {
+            for (Position position; (position = reader.next()) != null; ) {
+                numPositions++;
+                // Lines may give any depths, not only 1, 2, 3...: a long suite often gives just the deepest count.
+                TreeMap<Integer, String> counts = new TreeMap<>();
+                for (Map.Entry<String, String> operation : position._operations.entrySet()) {
+                    String opcode = operation.getKey();
+                    if (opcode.matches("D\\d+")) counts.put(Integer.parseInt(opcode.substring(1)), operation.getValue());
+                }
+                if (counts.isEmpty()) {
+                    failures.add("line " + reader.getLineNumber() + ": no D<depth> counts (" + position.toFen() + ")");
+                    continue;
+                }
+                if (counts.firstKey() > maxDepth) numSkipped++;
+                for (Map.Entry<Integer, String> count : counts.headMap(maxDepth, true).entrySet()) {
+                    int depth = count.getKey();
+                    String expected = count.getValue();
+                    long start = System.nanoTime();
+                    long nodes = perft(position._board, position._whiteToMove, depth, threads, hashMegabytes);
+                    totalTime += System.nanoTime() - start;
+                    totalNodes += nodes;
+                    if (nodes != Long.parseLong(expected.trim())) {
+                        failures.add("line " + reader.getLineNumber() + " depth " + depth + ": got " + nodes + ", expected " + expected.trim()
+                                + " (" + position.toFen() + ")");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.printf("%,d positions, %,d nodes in %,d ms (%,d nps)%n", numPositions, totalNodes, totalTime / 1000000,
+                totalNodes * 1000000000L / Math.max(1, totalTime));
+        if (numSkipped > 0) System.out.printf("%,d positions skipped: all their counts are deeper than %d%n", numSkipped, maxDepth);
+
+        if (!failures.isEmpty()) {
+            System.err.println("PERFT FAILED:");
+            for (String failure : failures) System.err.println("  " + failure);
+            System.exit(1);
+        }
+    }
+}
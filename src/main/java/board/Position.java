@@ -0,0 +1,35 @@
+package board;
+
+import java.util.Collections;
+import java.util.Map;
+
+/*
+ * A position read from a FEN or EPD line (see Fen).
+ * -> Board doesn't know whose turn it is, so the side to move comes along separately.
+ * -> EPD operations (like "bm e4" or "D5 4865609") are kept by opcode, in the order they appeared.
+ */
+
+public class Position {
+    public final Board _board;
+    public final boolean _whiteToMove;
+    public final int _fullMoveNumber;
+    public final Map<String, String> _operations;
+
+    public Position(Board board, boolean whiteToMove, int fullMoveNumber, Map<String, String> operations) {
+        _board = board;
+        _whiteToMove = whiteToMove;
+        _fullMoveNumber = fullMoveNumber;
+        _operations = operations == null ? Collections.emptyMap() : operations;
+    }
+
+    /**
+     * @return the operand of the given EPD opcode, or null if the line didn't have it.
+     */
+    public String getOperation(String opcode) {
+        return _operations.get(opcode);
+    }
+
+    public String toFen() {
+        return Fen.toFen(_board, _whiteToMove, _fullMoveNumber);
+    }
+}
@@ -0,0 +1,89 @@
+package board;
+
+import game.Game;
+import moves.MoveBuffer;
+
+/*
+ * The rules that differ between the variants in Game.Type. Board and AI ask a board's Rules instead of assuming standard chess.
+ * -> CHESS: standard rules.
+ * -> SLAUGHTER_CHESS: standard rules, but with a queen on nearly every starting square, so positions have several times
+ *    as many moves. Move buffers start big enough that they never have to grow, and the quiescence search stops sooner:
+ *    with a queen on every square, nearly every move is a capture, and the exchanges go on for as long as it lets them.
+ * -> HORDE: white has no king, only pawns, so it can't be checked or castle, and every pseudo-legal white move is legal.
+ *    White loses when it has no pieces left. Black plays by the standard rules.
+ * -> Standard chess only ever sees the base class, so the calls are trivially inlined and cost nothing.
+ */
+
+public class Rules {
+    public static final Rules CHESS = new Rules(MoveBuffer.DEFAULT_CAPACITY, 16);
+    public static final Rules SLAUGHTER_CHESS = new Rules(512, 6); // 15 queens and a king have at most 413 moves.
+    public static final Rules HORDE = new HordeRules();
+
+    private final int _moveBufferCapacity;
+    private final int _quiescenceDepth;
+
+    private Rules(int moveBufferCapacity, int quiescenceDepth) {
+        _moveBufferCapacity = moveBufferCapacity;
+        _quiescenceDepth = quiescenceDepth;
+    }
+
+    public static Rules forType(Game.Type type) {
+        switch (type) {
+            case SLAUGHTER_CHESS: return SLAUGHTER_CHESS;
+            case HORDE: return HORDE;
+            default: return CHESS;
+        }
+    }
+
+    /**
+     * For boards built from a layout: a white side without a king is played as Horde, and everything else as chess.
+     */
+    static Rules forBoard(Board board) {
+        return (board._kings & board._whites) == 0 ? HORDE : CHESS;
+    }
+
+    /**
+     * @return false if the given side plays without a king, so there's nothing to check and no move can be illegal for exposing it.
+     */
+    public boolean hasKing(boolean white) {
+        return true;
+    }
+
+    /**
+     * @return how big move buffers for this variant should start.
+     */
+    public int moveBufferCapacity() {
+        return _moveBufferCapacity;
+    }
+
+    /**
+     * @return how many plies of captures the quiescence search may go below the leaves of the main search.
+     */
+    public int quiescenceDepth() {
+        return _quiescenceDepth;
+    }
+
+    /**
+     * @param white the side to move, which has no legal moves.
+     * @return true if that side has lost, and false if the game is drawn by stalemate.
+     */
+    public boolean losesWithNoMoves(Board board, boolean white) {
+        return board.kingIsInCheck(white);
+    }
+
+    private static class HordeRules extends Rules {
+        HordeRules() {
+            super(MoveBuffer.DEFAULT_CAPACITY, 16);
+        }
+
+        @Override
+        public boolean hasKing(boolean white) {
+            return !white;
+        }
+
+        @Override
+        public boolean losesWithNoMoves(Board board, boolean white) {
+            return white ? board._whites == 0 : board.kingIsInCheck(false);
+        }
+    }
+}
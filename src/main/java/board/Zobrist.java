@@ -0,0 +1,106 @@
+package board;
+
+/*
+ * Zobrist keys for hashing positions into a single long.
+ * -> A position's key is the XOR of one random number per (piece, square), plus numbers for
+ *    the castling rights, the en passant file and the side to move.
+ * -> Because XOR undoes itself, a move only has to XOR out what it changed and XOR in the result.
+ * -> A second, separate key only tracks how many of each piece are left (the material key).
+ * -> The numbers come from a fixed seed, so a position always has the same key, run to run.
+ */
+
+public abstract class Zobrist {
+    // Indexed by piece + 6 (so black pieces are below 6, white above). Index 6 is an empty square, and is all zeros.
+    private static final long[][] pieceKeys = new long[13][64];
+    // Indexed by the 4 castling rights packed as bits (see castlingRights).
+    private static final long[] castlingKeys = new long[16];
+    private static final long[] enPassantKeys = new long[8];
+    private static final long blackToMoveKey;
+    // Indexed by piece + 6, then by how many of that piece were already on the board (see materialKey).
+    private static final long[][] materialKeys = new long[13][64];
+
+    private static long seed = 0x6A09E667F3BCC909L;
+
+    static {
+        for (int piece = 0; piece < 13; piece++) {
+            if (piece == 6) continue;
+            for (int square = 0; square < 64; square++) {
+                pieceKeys[piece][square] = nextRandom();
+            }
+        }
+        for (int i = 1; i < castlingKeys.length; i++) castlingKeys[i] = nextRandom();
+        for (int i = 0; i < enPassantKeys.length; i++) enPassantKeys[i] = nextRandom();
+        blackToMoveKey = nextRandom();
+        for (int piece = 0; piece < 13; piece++) {
+            if (piece == 6) continue;
+            for (int count = 0; count < 64; count++) {
+                materialKeys[piece][count] = nextRandom();
+            }
+        }
+    }
+
+    /**
+     * @return the full key of board, as if it were white's turn. Used when a board is built from scratch.
+     */
+    public static long hash(Board board) {
+        long hash = infoKey(board._info);
+        for (long pieces = board._whites | board._blacks; pieces != 0; pieces &= pieces - 1) {
+            int square = Long.numberOfTrailingZeros(pieces);
+            hash ^= pieceKey(board.pieceAt(square), square);
+        }
+        return hash;
+    }
+
+    /**
+     * @param piece the piece, in the Board format (negative for black, 0 for empty).
+     */
+    public static long pieceKey(int piece, int square) {
+        return pieceKeys[piece + 6][square];
+    }
+
+    /**
+     * @return the part of the key that comes from a BoardInfo: castling rights and the en passant file.
+     */
+    public static long infoKey(int info) {
+        long key = castlingKeys[castlingRights(info)];
+        if (BoardInfo.lastMoveWasDoublePawnMove(info)) key ^= enPassantKeys[BoardInfo.positionOfDoublePawn(info) % 8];
+        return key;
+    }
+
+    /**
+     * A material key is the XOR of materialKey(piece, i) for i from 0 up to the number of that piece on the board,
+     * so it depends only on how many of each piece there are, and not on where they are.
+     * @param count how many of piece were on the board before this one was added.
+     */
+    public static long materialKey(int piece, int count) {
+        return materialKeys[piece + 6][count];
+    }
+
+    /**
+     * XORed in whenever the side to move changes.
+     */
+    public static long sideKey() {
+        return blackToMoveKey;
+    }
+
+    /**
+     * Only rights that can still be used count, so a rook moving after its king has moved doesn't change the key.
+     */
+    private static int castlingRights(int info) {
+        int rights = 0;
+        if (!BoardInfo.whiteKingHasMoved(info) && !BoardInfo.whiteCastleA1HasMoved(info)) rights |= 1;
+        if (!BoardInfo.whiteKingHasMoved(info) && !BoardInfo.whiteCastleH1HasMoved(info)) rights |= 2;
+        if (!BoardInfo.blackKingHasMoved(info) && !BoardInfo.blackCastleA7HasMoved(info)) rights |= 4;
+        if (!BoardInfo.blackKingHasMoved(info) && !BoardInfo.blackCastleH7HasMoved(info)) rights |= 8;
+        return rights;
+    }
+
+    // SplitMix64.
+    private static long nextRandom() {
+        seed += 0x9E3779B97F4A7C15L;
+        long z = seed;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,202 +1,938 @@
 package evaluation;
 
+import board.Attacks;
 import board.Board;
 import moves.MoveUtils;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class AI {
     private static int TIMEOUT_RETURNVAL = 123456789;
+    private static final int MAX_DEPTH = 64;
+    private static final int MAX_QUIESCENCE_PLY = 16; // The most any Rules.quiescenceDepth may be.
+    private static final int MAX_PLY = MAX_DEPTH + MAX_QUIESCENCE_PLY;
+    private static final int DELTA_MARGIN = 200;
+    private static final int ASPIRATION_MIN_DEPTH = 4;
+    private static final int ASPIRATION_WINDOW = 50;
+    private static final int MAX_ASPIRATION_WINDOW = 1000; // Past this, searches with the full window instead.
+    private static final int[] FUTILITY_MARGINS = {0, 200, 500}; // By depth left.
+    private static final int[] RAZOR_MARGINS = {0, 300, 550}; // By depth left.
+    // A win the bitbases know of, before the static score is added to it (so the search still makes progress), and the most that adds.
+    private static final int BITBASE_WIN = 16000;
+    private static final int MAX_BITBASE_PROGRESS = 8000;
+    private static final int MATE = 100000;
+    // Scores beyond this (either way) are mates, and aren't pruned on. It's the smallest a mate score gets: one MAX_PLY plies
+    // away, decayed on the way up (see decay). Nothing else gets that far: the bitbase band tops out at 24000.
+    private static final int MATE_BOUND = decayedMate(MAX_PLY);
+    private static final int NO_SCORE = Integer.MIN_VALUE;
+    public static final int DEFAULT_HASH_MEGABYTES = 32;
+
+    // Roughly what each piece is worth (by the absolute piece number), for delta pruning.
+    private static final int[] pieceValues = {0, 100, 300, 300, 500, 900, 0};
+
+    // Shared by every AI, and kept for as long as the program runs. Daemon threads, so they never keep it from exiting.
+    private static final ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "AI worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ThreadLocal<Worker> workerState = new ThreadLocal<>();
+
+    // Every ponder search running, by any AI. A real search stops them all: pondering may only use time nobody else needs,
+    // and a ponder search holding every worker would leave the real search's tasks queued forever.
+    private static final Set<Search> ponderSearches = ConcurrentHashMap.newKeySet();
+
+    // The search in progress, if any, so it can be stopped from outside.
+    private volatile Search _search;
+
+    // The search running on the opponent's time, if any, and the position it's searching (see startPondering).
+    private Search _ponderSearch;
+    private long _ponderHash;
+    private int _ponderHits;
+    private int _ponderMisses;
+    private long _ponderTimeSaved;
+
+    // The principal variation of the last search.
+    private int[] _lastPrincipalVariation = new int[0];
+
+    // Shared by every worker, and kept from one move to the next.
+    private final TranspositionTable _table;
+
+    /*
+     * Ways the search skips (or searches less deeply) moves that are unlikely to matter. All are on by default.
+     * -> NULL_MOVE: if passing the turn still leaves the side to move above beta, a real move surely would too, so the node
+     *    is cut off after a shallow search. Only when the side has pieces besides pawns: with only pawns (as white in
+     *    Horde), every move can make things worse (zugzwang), and passing would give a wrong answer.
+     * -> LATE_MOVE_REDUCTIONS: quiet moves late in the ordering are searched less deeply, and only in full if they turn out good.
+     * -> FUTILITY: one or two moves from the leaves, quiet moves are skipped when the static score is too far below alpha to catch up.
+     * -> RAZORING: one or two moves from the leaves, positions far below alpha only get a quiescence search.
+     * None of them apply in check, or on the principal variation (except late move reductions).
+     */
+    public enum Pruning { NULL_MOVE, LATE_MOVE_REDUCTIONS, FUTILITY, RAZORING }
+
+    private final EnumSet<Pruning> _pruning = EnumSet.allOf(Pruning.class);
+    private final List<SearchListener> _listeners = new CopyOnWriteArrayList<>();
+    private volatile int _lastDepth;
+
+    public AI() {
+        this(DEFAULT_HASH_MEGABYTES);
+    }
 
-    public long getBestMove(Board board, boolean isWhite, long maxTime, List<Long> allMoves, boolean endgame) {
-        List<MoveScoreUpdater> updaters = new ArrayList<>();
-        List<Thread> threads = new ArrayList<>();
-        int[] allScores = new int[allMoves.size()];
-        int[] depths = new int[allMoves.size()];
-        long time = System.currentTimeMillis();
-
-        AtomicInteger maxDepthSoFar = new AtomicInteger();
-        for (int i = 0; i < allMoves.size(); i++) {
-            if (MoveUtils.isUserPawnPromotion(allMoves.get(i))) continue;
-            int index = i;
-            MoveScoreUpdater updater = (newScore, depth) -> {
-                allScores[index] = newScore;
-                depths[index] = depth;
-                if (index == 0 && depth > maxDepthSoFar.get()) {
-                    System.out.println("Depth: " + depth + ", " + (System.currentTimeMillis()-time));
-                    maxDepthSoFar.set(depth);
-                }
-            };
-            updaters.add(updater);
-            Board cloned = board.clone();
-            cloned.applyMove(allMoves.get(i));
-            Thread thread = generateMinimaxThread(maxTime, cloned, !isWhite, updater, endgame);
-            threads.add(thread);
+    public AI(int hashMegabytes) {
+        _table = new TranspositionTable(hashMegabytes);
+    }
+
+    /**
+     * Resizes (and empties) the transposition table. Don't call while a search is running.
+     */
+    public void setHashSize(int megabytes) {
+        _table.resize(megabytes);
+    }
+
+    /**
+     * Turns one of the pruning techniques on or off, from the next search on.
+     */
+    public synchronized void setPruning(Pruning technique, boolean enabled) {
+        if (enabled) _pruning.add(technique);
+        else _pruning.remove(technique);
+    }
+
+    /**
+     * Has listener told about every search from now on (see SearchListener).
+     */
+    public void addSearchListener(SearchListener listener) {
+        _listeners.add(listener);
+    }
+
+    public void removeSearchListener(SearchListener listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * @return the depth the last search completed, to compare settings by.
+     */
+    public int getLastDepth() {
+        return _lastDepth;
+    }
+
+    /*
+     * One call to getBestMove.
+     * -> The main task deepens one iteration at a time over all the root moves, and publishes the best move, its score and
+     *    principal variation after each completed depth, so the caller always gets a consistent answer.
+     * -> Every other pool thread runs a helper task doing the same search only to fill the shared transposition table,
+     *    so the main task finds much of its work already done. Helpers start at staggered depths so they don't all search the same thing.
+     * -> Tasks check _stopped at every node, so stopping unwinds the whole search almost at once.
+     * -> A ponder search has no time limits until ponderHit gives it some, and just deepens until it's stopped.
+     */
+    private static class Search {
+        final boolean _isWhite;
+        final boolean _endgame;
+        final long _rootMaterialKey;
+        final TranspositionTable _table;
+        volatile TimeManager _time;
+        final long _creationTime; // What SearchInfo's time counts from, pondering included, like its node counts.
+        volatile long _startTime; // What the time limits count from: the ponder hit, for a search that began pondering.
+        volatile long _deadline;
+        volatile boolean _pondering;
+        final SearchCounters[] _counters; // One per task.
+        final boolean _nullMove;
+        final boolean _lateMoveReductions;
+        final boolean _futility;
+        final boolean _razoring;
+        final CountDownLatch _finished;
+        volatile boolean _stopped;
+
+        // The result of the last depth the main task completed (or, before it completes one, of the root moves searched so far).
+        volatile int _bestMove = MovePicker.NO_MOVE;
+        volatile int _bestScore;
+        volatile int _completedDepth;
+        volatile int[] _principalVariation = new int[0];
+
+        /**
+         * @param time null for a ponder search.
+         */
+        Search(boolean isWhite, boolean endgame, long rootMaterialKey, TranspositionTable table, EnumSet<Pruning> pruning,
+               TimeManager time, int numTasks) {
+            _isWhite = isWhite;
+            _endgame = endgame;
+            _rootMaterialKey = rootMaterialKey;
+            _table = table;
+            _time = time;
+            _creationTime = System.currentTimeMillis();
+            _startTime = _creationTime;
+            _deadline = time == null ? Long.MAX_VALUE : _startTime + time.getHardLimit();
+            _pondering = time == null;
+            _finished = new CountDownLatch(numTasks);
+            _counters = new SearchCounters[numTasks];
+            for (int i = 0; i < numTasks; i++) _counters[i] = new SearchCounters();
+            _nullMove = pruning.contains(Pruning.NULL_MOVE);
+            _lateMoveReductions = pruning.contains(Pruning.LATE_MOVE_REDUCTIONS);
+            _futility = pruning.contains(Pruning.FUTILITY);
+            _razoring = pruning.contains(Pruning.RAZORING);
+        }
+
+        /**
+         * Turns a ponder search into a normal one, with time limits counting from now.
+         */
+        void ponderHit(TimeManager time) {
+            _time = time;
+            _startTime = System.currentTimeMillis();
+            _deadline = _startTime + time.getHardLimit();
+            _pondering = false;
+        }
+
+        /**
+         * @return the results of the last completed depth, and the counts so far.
+         */
+        SearchInfo info() {
+            return new SearchInfo(_completedDepth, SearchCounters.sum(_counters), System.currentTimeMillis() - _creationTime,
+                    _bestScore, _principalVariation, _pondering);
+        }
+    }
+
+    /*
+     * What each pool thread keeps between tasks, so searching doesn't allocate.
+     * -> One move picker per ply, reused by every node searched at that ply.
+     * -> The thread's own killer, history and counter move tables, started afresh (or aged) for each new search.
+     * -> The principal variation found below each ply: _principalVariation[ply] holds it from index ply up to _pvLength[ply].
+     * -> The counters of the task it's running (see SearchCounters).
+     */
+    private static class Worker {
+        final MovePicker[] _pickers;
+        final MoveOrdering _ordering = new MoveOrdering(MAX_PLY);
+        final int[][] _principalVariation = new int[MAX_PLY + 1][MAX_PLY + 1];
+        final int[] _pvLength = new int[MAX_PLY + 1];
+        Search _search;
+        SearchCounters _counters;
+
+        Worker(int moveBufferCapacity) {
+            _pickers = new MovePicker[MAX_PLY + 1];
+            for (int i = 0; i < _pickers.length; i++) _pickers[i] = new MovePicker(moveBufferCapacity);
+        }
+
+        /**
+         * Makes the principal variation at ply move, followed by the one found below it.
+         */
+        void updatePrincipalVariation(int ply, int move) {
+            int length = _pvLength[ply + 1];
+            _principalVariation[ply][ply] = move;
+            System.arraycopy(_principalVariation[ply + 1], ply + 1, _principalVariation[ply], ply + 1, length - ply - 1);
+            _pvLength[ply] = length;
+        }
+    }
+
+    /**
+     * Like getBestMove with a TimeManager, but always thinks for maxTime (less TimeManager.MOVE_OVERHEAD), unless it
+     * runs out of depth first.
+     */
+    public int getBestMove(Board board, boolean isWhite, long maxTime, List<Integer> allMoves, boolean endgame) {
+        return getBestMove(board, isWhite, TimeManager.fixed(maxTime), allMoves, endgame);
+    }
+
+    /**
+     * Searches deeper and deeper until it has gone as deep as it can, or time decides it has thought long enough,
+     * and returns the best move of the last completed depth (or, if it didn't complete one, the best root move it searched).
+     * Returns at once if there's only one move to make. Nothing is left running once this returns.
+     * @param time a new TimeManager for this move.
+     * @throws IllegalArgumentException if allMoves has no moves to choose from (user pawn promotions don't count).
+     */
+    public int getBestMove(Board board, boolean isWhite, TimeManager time, List<Integer> allMoves, boolean endgame) {
+        List<Integer> moves = new ArrayList<>();
+        for (int move : allMoves) {
+            if (!MoveUtils.isUserPawnPromotion(move)) moves.add(move);
+        }
+        if (moves.isEmpty()) throw new IllegalArgumentException("No moves to choose from");
+        if (moves.size() == 1) {
+            // Nothing to think about, even after a ponder hit, but the hit still counts.
+            Search pondered = takePonderSearch(board, isWhite);
+            if (pondered != null) stopAndWait(pondered);
+            _lastPrincipalVariation = new int[] {moves.get(0)};
+            return moves.get(0);
+        }
+
+        int[] rootMoves = new int[moves.size()];
+        for (int i = 0; i < rootMoves.length; i++) rootMoves[i] = moves.get(i);
+
+        // If the opponent played the expected move, the ponder search has already been searching this position: keep it going.
+        Search search = takePonderSearch(board, isWhite);
+        if (search != null) search.ponderHit(time);
+        else search = startSearch(board, isWhite, endgame, time, rootMoves);
+        _search = search;
+
+        try {
+            search._finished.await(time.getHardLimit(), TimeUnit.MILLISECONDS);
+            search._stopped = true;
+            search._finished.await(); // The workers see _stopped at their next node, so this is quick.
+        } catch (InterruptedException e) {
+            search._stopped = true;
+            Thread.currentThread().interrupt();
         }
+        _search = null;
+        _lastDepth = search._completedDepth;
+        _lastPrincipalVariation = search._principalVariation;
+        SearchInfo info = search.info();
+        for (SearchListener listener : _listeners) listener.searchFinished(info);
+
+        // Only if the search was stopped before it finished searching even one root move.
+        if (search._bestMove == MovePicker.NO_MOVE) return rootMoves[0];
+        return search._bestMove;
+    }
+
+    /**
+     * Starts searching the position the opponent is expected to reach, on the opponent's time: the one after move, the
+     * AI's own last choice, and the reply the last search expected (from its principal variation). Runs until the next
+     * getBestMove, which keeps its work if the opponent made that reply, or until stopPondering.
+     * @param board the position the AI just chose move in.
+     * @return false if there's no expected reply to ponder on.
+     */
+    public boolean startPondering(Board board, int move, boolean isWhite) {
+        stopPondering();
+        int[] principalVariation = _lastPrincipalVariation;
+        if (principalVariation.length < 2 || principalVariation[0] != move) return false;
+
+        Board ponderBoard = board.clone();
+        ponderBoard.applyMove(move);
+        int reply = principalVariation[1];
+        if (!ponderBoard.isPseudoLegal(reply, !isWhite) || !ponderBoard.isLegal(reply, !isWhite)) return false;
+        ponderBoard.applyMove(reply);
+
+        List<Integer> moves = ponderBoard.getAllLegalMoves(isWhite, false);
+        if (moves.size() < 2) return false;
+        int[] rootMoves = new int[moves.size()];
+        for (int i = 0; i < rootMoves.length; i++) rootMoves[i] = moves.get(i);
+
+        _ponderHash = ponderBoard._hash;
+        _ponderSearch = startSearch(ponderBoard, isWhite, ponderBoard.getIsEndgame(), null, rootMoves);
+        ponderSearches.add(_ponderSearch);
+        return true;
+    }
 
-        for (Thread thread : threads) {
-            thread.start();
+    /**
+     * Checks whether the ponder search, if there is one, was searching board's position, and counts (and tells the
+     * listeners) whether it was a hit or a miss. A miss is stopped.
+     * @return the ponder search, no longer counted as pondering, if it was a hit. Null otherwise.
+     */
+    private Search takePonderSearch(Board board, boolean isWhite) {
+        Search search = _ponderSearch;
+        if (search == null) return null;
+        if (!search._stopped && search._isWhite == isWhite && _ponderHash == board._hash) {
+            _ponderSearch = null;
+            ponderSearches.remove(search);
+            _ponderHits++;
+            _ponderTimeSaved += System.currentTimeMillis() - search._startTime;
+            SearchInfo pondered = search.info();
+            for (SearchListener listener : _listeners) listener.ponderHit(pondered);
+            return search;
         }
+        stopPondering();
+        _ponderMisses++;
+        SearchInfo pondered = search.info();
+        for (SearchListener listener : _listeners) listener.ponderMiss(pondered);
+        return null;
+    }
 
+    /**
+     * Stops the ponder search, if there is one, and waits for its tasks to finish.
+     */
+    public void stopPondering() {
+        Search search = _ponderSearch;
+        if (search == null) return;
+        _ponderSearch = null;
+        ponderSearches.remove(search);
+        stopAndWait(search);
+    }
+
+    private static void stopAndWait(Search search) {
+        search._stopped = true;
         try {
-            Thread.sleep(maxTime);
-        } catch (InterruptedException ignored) {}
-
-        // Now, the threads are all finished, or are finishing.
-        List<Long> bestMoves = new ArrayList<>();
-        int bestScore = (isWhite ? -1000000 : 1000000);
-        for (int i = 0; i < allScores.length; i++) {
-            if (MoveUtils.isUserPawnPromotion(allMoves.get(i))) continue;
-            if (isWhite) {
-                if (allScores[i] > bestScore) {
-                    bestScore = allScores[i];
-                    bestMoves = new ArrayList<>();
-                    bestMoves.add(allMoves.get(i));
-                } else if (allScores[i] == bestScore) {
-                    bestMoves.add(allMoves.get(i));
+            search._finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return how many times the opponent made the move the AI pondered on.
+     */
+    public int getPonderHits() {
+        return _ponderHits;
+    }
+
+    /**
+     * @return how many times the opponent made some other move, so the pondering was thrown away.
+     */
+    public int getPonderMisses() {
+        return _ponderMisses;
+    }
+
+    /**
+     * @return the total time, in milliseconds, the AI had already spent pondering when its ponder searches were hit.
+     */
+    public long getPonderTimeSaved() {
+        return _ponderTimeSaved;
+    }
+
+    /**
+     * Starts the tasks of a new search (see Search), and returns without waiting for them.
+     * @param time null for a ponder search.
+     */
+    private Search startSearch(Board board, boolean isWhite, boolean endgame, TimeManager time, int[] rootMoves) {
+        if (time != null) {
+            for (Search ponderSearch : ponderSearches) ponderSearch._stopped = true;
+        }
+        _table.newSearch();
+        int numTasks = Runtime.getRuntime().availableProcessors();
+        Search search;
+        synchronized (this) {
+            search = new Search(isWhite, endgame, board._materialKey, _table, _pruning, time, numTasks);
+        }
+        rootMoves = bitbaseRootMoves(board, isWhite, rootMoves);
+        for (int i = 0; i < numTasks; i++) {
+            int task = i;
+            int firstDepth = 1 + i % 2;
+            Board cloned = board.clone();
+            int[] ownRootMoves = rootMoves.clone();
+            workers.execute(() -> {
+                try {
+                    iterativeDeepening(search, cloned, ownRootMoves, firstDepth, task);
+                } finally {
+                    search._finished.countDown();
                 }
-            } else {
-                if (allScores[i] < bestScore) {
-                    bestScore = allScores[i];
-                    bestMoves = new ArrayList<>();
-                    bestMoves.add(allMoves.get(i));
-                } else if (allScores[i] == bestScore) {
-                    bestMoves.add(allMoves.get(i));
+            });
+        }
+        return search;
+    }
+
+    /**
+     * Stops the search in progress, if there is one. getBestMove then returns the best move found so far.
+     */
+    public void stop() {
+        Search search = _search;
+        if (search != null) search._stopped = true;
+    }
+
+    /**
+     * Searches all the root moves to depth firstDepth, then one deeper, and so on, until the search is stopped, the
+     * deadline passes, the TimeManager says to stop (for the main task), or MAX_DEPTH is reached.
+     * After each depth the root moves are sorted best first for the next one.
+     * @param task the task's number. Task 0 is the main task, whose results count, and which stops the helpers when it's done.
+     */
+    private void iterativeDeepening(Search search, Board board, int[] rootMoves, int firstDepth, int task) {
+        boolean main = task == 0;
+        Worker worker = workerFor(search, board, task);
+        int[] scores = new int[rootMoves.length];
+        int score = 0;
+        for (int depth = firstDepth; depth <= MAX_DEPTH; depth++) {
+            // Depth 1 always starts, but it can be stopped like any other: then the best root move it finished searching is
+            // the answer (see searchRoot).
+            if (search._stopped || (depth > 1 && System.currentTimeMillis() >= search._deadline)) break;
+            if (main && !search._pondering && depth > firstDepth && search._time.shouldStop(System.currentTimeMillis() - search._startTime)) break;
+
+            score = aspirationSearch(board, rootMoves, scores, depth, score, main, worker, search);
+            if (score == TIMEOUT_RETURNVAL) break;
+
+            sortRootMoves(rootMoves, scores, search._isWhite);
+            if (main) {
+                search._principalVariation = Arrays.copyOf(worker._principalVariation[0], worker._pvLength[0]);
+                search._bestScore = score;
+                search._bestMove = rootMoves[0];
+                search._completedDepth = depth;
+                TimeManager time = search._time;
+                if (time != null) time.iterationFinished(rootMoves[0], search._isWhite ? score : -score);
+                if (!_listeners.isEmpty()) {
+                    SearchInfo info = search.info();
+                    for (SearchListener listener : _listeners) listener.iterationFinished(info);
                 }
             }
         }
+        if (main) search._stopped = true;
+    }
 
-        int random = (int) (Math.random() * bestMoves.size());
-        return bestMoves.get(random);
+    /**
+     * If the root is in the bitbases, only the moves that keep its result (win, or else draw) are worth searching:
+     * the search doesn't probe positions with the root's material, so it can't tell those moves from the rest.
+     * @return the moves to search.
+     */
+    private static int[] bitbaseRootMoves(Board board, boolean isWhite, int[] rootMoves) {
+        if (!Bitbases.canProbe(board)) return rootMoves;
+        int[] results = new int[rootMoves.length];
+        int best = Bitbases.WIN;
+        for (int i = 0; i < rootMoves.length; i++) {
+            board.applyMove(rootMoves[i]);
+            results[i] = Bitbases.canProbe(board) ? Bitbases.probe(board, !isWhite) : Bitbases.UNKNOWN;
+            board.undoMove();
+            if (results[i] == Bitbases.UNKNOWN) return rootMoves;
+            if (results[i] == Bitbases.LOSS || (results[i] == Bitbases.DRAW && best == Bitbases.WIN)) best = results[i];
+        }
+
+        int[] kept = new int[rootMoves.length];
+        int numKept = 0;
+        for (int i = 0; i < rootMoves.length; i++) {
+            if (results[i] == best) kept[numKept++] = rootMoves[i];
+        }
+        return Arrays.copyOf(kept, numKept);
     }
 
-    private Thread generateMinimaxThread(long timeMilis, Board board, boolean isNowWhiteTurn, MoveScoreUpdater updater, boolean endgame) {
-        return new Thread(() -> {
-            long timeStart = System.currentTimeMillis();
-            int depth = 0;
-            Map<Integer, Integer> scoresFromLastRun = new HashMap<>();
-            while (System.currentTimeMillis() < timeStart + timeMilis) {
-                depth++;
-                Map<Integer, Integer> next = new HashMap<>();
-                int score = minimax(board, depth, -1000000, 1000000, isNowWhiteTurn,timeStart + timeMilis - 200, endgame);
-                scoresFromLastRun = next;
-                if (score != TIMEOUT_RETURNVAL) updater.updateScore(score, depth+1);
-            }
-        });
+    /**
+     * Past a capture or promotion, a position in the bitbases needs no search. While the root's material is still on the
+     * board, though, the search needs its own scores to find the way to mate, so positions like that aren't probed.
+     * @return the position's score, or NO_SCORE if it can't be probed.
+     */
+    private static int bitbaseScore(Board board, boolean maximizing, boolean endgame, Search search) {
+        if (board._materialKey == search._rootMaterialKey || !Bitbases.canProbe(board)) return NO_SCORE;
+        int result = Bitbases.probe(board, maximizing);
+        if (result == Bitbases.UNKNOWN) return NO_SCORE;
+        if (result == Bitbases.DRAW) return 0;
+        int progress = Math.max(-MAX_BITBASE_PROGRESS, Math.min(MAX_BITBASE_PROGRESS, board.getPoints(endgame)));
+        return (result == Bitbases.WIN) == maximizing ? BITBASE_WIN + progress : -BITBASE_WIN + progress;
     }
 
-    private int minimax(Board board, int depth, int alpha, int beta, boolean maximizing, long timeWhenMustQuit, boolean endgame) {
-        List<Long> moves = board.getAllLegalMoves(maximizing, false);
+    /**
+     * Searches the root with a narrow window around the last depth's score, since the score rarely moves far from one
+     * depth to the next, and a narrow window cuts off much more. If the score falls outside, the window widens and it searches again.
+     */
+    private int aspirationSearch(Board board, int[] rootMoves, int[] scores, int depth, int previousScore, boolean main, Worker worker, Search search) {
+        int delta = ASPIRATION_WINDOW;
+        int alpha = -1000000;
+        int beta = 1000000;
+        if (depth >= ASPIRATION_MIN_DEPTH) {
+            alpha = previousScore - delta;
+            beta = previousScore + delta;
+        }
+
+        while (true) {
+            int score = searchRoot(board, rootMoves, scores, depth, alpha, beta, main, worker, search);
+            if (score == TIMEOUT_RETURNVAL) return score;
 
-        if (moves.size() == 0) {
-            if (board.kingIsInCheck(maximizing)) {
-                return (maximizing ? -100000 : 100000); // Checkmate, avoid at all costs.
+            if (score <= alpha && alpha > -1000000) {
+                alpha = score - delta;
+            } else if (score >= beta && beta < 1000000) {
+                beta = score + delta;
             } else {
-                return 0; // Draw.
+                return score;
+            }
+            delta *= 4;
+            if (delta > MAX_ASPIRATION_WINDOW) {
+                alpha = -1000000;
+                beta = 1000000;
             }
         }
+    }
 
-        if (maximizing) {
-            int maxEval = -1000000;
-            for (long move : moves) {
-                board.applyMove(move);
-
-                int eval;
-                if (depth > 1) {
-                    eval = minimax(board, depth - 1, alpha, beta, false, timeWhenMustQuit, endgame);
-                } else {
-                    eval = board.getPoints(endgame);
+    /**
+     * Searches every root move in order, and writes its score into scores. For moves after the first, the score
+     * may only be a bound, which is enough to tell they aren't the best.
+     * Until the main task has completed a depth, it publishes the best move of this one each time it finds a better one,
+     * so a search stopped during its first depth still returns a searched move. Those searches have the full window,
+     * so the best so far is exact.
+     * @return the best score.
+     */
+    private int searchRoot(Board board, int[] rootMoves, int[] scores, int depth, int alpha, int beta, boolean main, Worker worker, Search search) {
+        boolean maximizing = search._isWhite;
+        int best = maximizing ? -1000000 : 1000000;
+        for (int i = 0; i < rootMoves.length; i++) {
+            board.applyMove(rootMoves[i]);
+            int eval = searchMove(board, depth - 1, 1, alpha, beta, !maximizing, i == 0, 0, worker, search);
+            board.undoMove();
+            if (eval == TIMEOUT_RETURNVAL) return eval;
+
+            scores[i] = eval;
+            if (maximizing ? eval > best : eval < best) {
+                best = eval;
+                worker.updatePrincipalVariation(0, rootMoves[i]);
+                if (main && search._completedDepth == 0) {
+                    search._principalVariation = Arrays.copyOf(worker._principalVariation[0], worker._pvLength[0]);
+                    search._bestScore = eval;
+                    search._bestMove = rootMoves[i];
                 }
+            }
+            if (maximizing && eval > alpha) alpha = eval;
+            if (!maximizing && eval < beta) beta = eval;
+            if (alpha >= beta) break;
+        }
+        return best;
+    }
 
-                board.undoMove();
+    /**
+     * Sorts the root moves (and their scores) best first, keeping the order of moves with the same score.
+     */
+    private static void sortRootMoves(int[] rootMoves, int[] scores, boolean isWhite) {
+        for (int i = 1; i < rootMoves.length; i++) {
+            int move = rootMoves[i];
+            int score = scores[i];
+            int j = i - 1;
+            for (; j >= 0 && (isWhite ? scores[j] < score : scores[j] > score); j--) {
+                rootMoves[j + 1] = rootMoves[j];
+                scores[j + 1] = scores[j];
+            }
+            rootMoves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
 
-                if (eval == TIMEOUT_RETURNVAL) return eval;
-                eval = (eval - (eval>>6));
+    private static Worker workerFor(Search search, Board board, int task) {
+        Worker worker = workerState.get();
+        if (worker == null || worker._pickers[0].capacity() < board.getRules().moveBufferCapacity()) {
+            worker = new Worker(board.getRules().moveBufferCapacity());
+            workerState.set(worker);
+        }
+        if (worker._search != search) {
+            worker._search = search;
+            worker._ordering.newSearch();
+        }
+        worker._counters = search._counters[task];
+        return worker;
+    }
 
-                if (eval > maxEval) maxEval = eval;
-                if (eval > alpha) alpha = eval;
-                if (alpha > beta) break;
-            }
+    /**
+     * Searches the position after a move (made on board) with depth left, and returns its score as the mover sees it.
+     * -> Principal variation search: only the first move of a node gets the full window. The ones after are expected to
+     *    be worse, so they're searched with a null window, which only proves that. Any that turn out better are searched again in full.
+     * -> A reduced move is searched with a null window at depth - reduction first, and again at full depth only if it turns out better.
+     * @param maximizing true if white is to move after the move.
+     */
+    private int searchMove(Board board, int depth, int ply, int alpha, int beta, boolean maximizing, boolean firstMove, int reduction, Worker worker, Search search) {
+        int childAlpha = childAlpha(alpha);
+        int childBeta = childBeta(beta);
+        if ((!firstMove && beta - alpha > 1) || reduction > 0) {
+            // A move for white has to beat alpha, and a move for black has to beat beta.
+            int nullAlpha = maximizing ? childBeta - 1 : childAlpha;
+            int nullBeta = maximizing ? childBeta : childAlpha + 1;
+            int eval = searchChild(board, depth - reduction, ply, nullAlpha, nullBeta, maximizing, worker, search);
+            if (eval == TIMEOUT_RETURNVAL) return eval;
+            if (maximizing ? eval >= beta : eval <= alpha) return eval; // No better.
+            if (reduction == 0 && (eval <= alpha || eval >= beta)) return eval; // Better, but a cutoff either way.
+        }
+        return searchChild(board, depth, ply, childAlpha, childBeta, maximizing, worker, search);
+    }
 
-            if (maxEval == -1000000) maxEval = board.getPoints(endgame);
+    /**
+     * Searches the position on board with the window as it is (so in the child's terms, see childAlpha), and decays the score.
+     */
+    private int searchChild(Board board, int depth, int ply, int alpha, int beta, boolean maximizing, Worker worker, Search search) {
+        int eval = depth > 0 ? minimax(board, depth, ply, alpha, beta, maximizing, search._endgame, worker, search)
+                             : quiesce(board, ply, quiescenceDepth(board), alpha, beta, maximizing, search._endgame, worker, search);
+        if (eval == TIMEOUT_RETURNVAL) return eval;
+        return decay(eval);
+    }
 
-            if (depth > 3 && System.currentTimeMillis() > timeWhenMustQuit) return TIMEOUT_RETURNVAL;
-            return maxEval;
-        } else {
-            int minEval = 1000000;
-            for (long move : moves) {
-                board.applyMove(move);
-
-                int eval;
-                if (depth > 1) {
-                    eval = minimax(board, depth - 1, alpha, beta, true, timeWhenMustQuit, endgame);
-                } else {
-                    eval = board.getPoints(endgame);
-                }
+    /**
+     * Scores shrink by 1/64 on the way up from a child, so the engine prefers gains that come sooner (and mates that come later).
+     */
+    private static int decay(int eval) {
+        return eval - (eval >> 6);
+    }
 
-                board.undoMove();
+    /**
+     * @return the score of a mate found the given number of plies below a node, once it has decayed up to it.
+     */
+    private static int decayedMate(int plies) {
+        int score = MATE;
+        for (int i = 0; i < plies; i++) score = decay(score);
+        return score;
+    }
 
-                if (eval == TIMEOUT_RETURNVAL) return eval;
-                eval = (eval - (eval>>6));
+    /**
+     * @return the window bound to search a child with, for a parent's alpha: the best child score that decays to at most alpha.
+     */
+    private static int childAlpha(int alpha) {
+        if (alpha <= -1000000) return alpha;
+        int eval = alpha + (alpha >> 6);
+        while (decay(eval + 1) <= alpha) eval++;
+        while (decay(eval) > alpha) eval--;
+        return eval;
+    }
 
-                if (eval < minEval) minEval = eval;
-                if (eval < beta) beta = eval;
-                if (alpha > beta) break;
+    /**
+     * @return the window bound to search a child with, for a parent's beta: the worst child score that decays to at least beta.
+     */
+    private static int childBeta(int beta) {
+        if (beta >= 1000000) return beta;
+        int eval = beta + (beta >> 6);
+        while (decay(eval - 1) >= beta) eval--;
+        while (decay(eval) < beta) eval++;
+        return eval;
+    }
+
+    /**
+     * @param ply how many moves the position is from the root.
+     */
+    private int minimax(Board board, int depth, int ply, int alpha, int beta, boolean maximizing, boolean endgame, Worker worker, Search search) {
+        worker._pvLength[ply] = ply;
+        if (search._stopped) return TIMEOUT_RETURNVAL;
+        worker._counters.node(ply);
+
+        int bitbaseScore = bitbaseScore(board, maximizing, endgame, search);
+        if (bitbaseScore != NO_SCORE) return bitbaseScore;
+
+        // A deep enough result from the table can stand in for this search, if it's exact or its bound already causes a cutoff.
+        // Not on the principal variation (searched with a full window), though, or the variation would stop here.
+        long entry = search._table.probe(board._hash);
+        worker._counters.hashProbe(entry != TranspositionTable.NO_ENTRY);
+        int hashMove = MovePicker.NO_MOVE;
+        if (entry != TranspositionTable.NO_ENTRY) {
+            hashMove = TranspositionTable.getMove(entry);
+            if (beta - alpha == 1 && TranspositionTable.getDepth(entry) >= depth) {
+                int score = TranspositionTable.getScore(entry);
+                int bound = TranspositionTable.getBound(entry);
+                if (bound == TranspositionTable.EXACT) return score;
+                if (bound == TranspositionTable.LOWER_BOUND && score >= beta) return score;
+                if (bound == TranspositionTable.UPPER_BOUND && score <= alpha) return score;
+            }
+        }
+        int alphaOriginal = alpha;
+        int betaOriginal = beta;
+
+        boolean pvNode = beta - alpha > 1;
+        boolean inCheck = board.kingIsInCheck(maximizing);
+        boolean nearMate = alpha <= -MATE_BOUND || beta >= MATE_BOUND;
+        int staticEval = 0;
+        if (!pvNode && !inCheck && !nearMate) {
+            staticEval = board.getPoints(endgame);
+
+            if (search._razoring && depth < RAZOR_MARGINS.length
+                    && (maximizing ? staticEval + RAZOR_MARGINS[depth] <= alpha : staticEval - RAZOR_MARGINS[depth] >= beta)) {
+                int score = quiesce(board, ply, quiescenceDepth(board), alpha, beta, maximizing, endgame, worker, search);
+                if (score == TIMEOUT_RETURNVAL || (maximizing ? score <= alpha : score >= beta)) return score;
             }
 
-            if (minEval == 1000000) minEval = board.getPoints(endgame);
+            if (search._nullMove && depth >= 3 && board.getLastMove() != MovePicker.NO_MOVE && hasPieces(board, maximizing)
+                    && (maximizing ? staticEval >= beta : staticEval <= alpha)) {
+                board.applyNullMove();
+                int score = searchMove(board, depth - 1 - (2 + depth / 4), ply + 1, alpha, beta, !maximizing, true, 0, worker, search);
+                board.undoMove();
+                if (score == TIMEOUT_RETURNVAL) return score;
+                // Even a free move for the opponent wasn't enough. Only the bound is returned: the score itself may be a mate
+                // that passing allowed, and passing isn't legal.
+                if (maximizing && score >= beta) return beta;
+                if (!maximizing && score <= alpha) return alpha;
+            }
+        }
+        boolean futile = search._futility && !pvNode && !inCheck && !nearMate && depth < FUTILITY_MARGINS.length
+                && (maximizing ? staticEval + FUTILITY_MARGINS[depth] <= alpha : staticEval - FUTILITY_MARGINS[depth] >= beta);
+
+        // Moves come out in stages and are only checked for legality right before they're searched,
+        // so a cutoff on an early move saves generating (and checking) the rest.
+        MovePicker picker = worker._pickers[ply];
+        picker.init(board, maximizing, hashMove, worker._ordering, ply);
+        int numLegalMoves = 0;
+        int bestMove = MovePicker.NO_MOVE;
+        int best = maximizing ? -1000000 : 1000000;
+
+        for (int move = picker.next(); move != MovePicker.NO_MOVE; move = picker.next()) {
+            if (!board.isLegal(move, maximizing)) continue;
+            numLegalMoves++;
+            boolean quiet = MoveOrdering.isQuiet(board, move);
 
-            if (depth > 3 && System.currentTimeMillis() > timeWhenMustQuit) return TIMEOUT_RETURNVAL;
-            return minEval;
+            board.applyMove(move);
+            boolean givesCheck = quiet && board.kingIsInCheck(!maximizing);
+            if (futile && quiet && !givesCheck && numLegalMoves > 1) {
+                board.undoMove();
+                continue;
+            }
+            int reduction = 0;
+            if (search._lateMoveReductions && quiet && !givesCheck && !inCheck && depth >= 3 && numLegalMoves > 3) {
+                reduction = !pvNode && depth >= 6 && numLegalMoves > 8 ? 2 : 1;
+            }
+            int eval = searchMove(board, depth - 1, ply + 1, alpha, beta, !maximizing, numLegalMoves == 1, reduction, worker, search);
+            board.undoMove();
+            if (eval == TIMEOUT_RETURNVAL) return eval;
+
+            if (maximizing ? eval > best : eval < best) {
+                best = eval;
+                bestMove = move;
+            }
+            if (maximizing ? eval > alpha : eval < beta) {
+                if (maximizing) alpha = eval;
+                else beta = eval;
+                worker.updatePrincipalVariation(ply, move);
+            }
+            if (alpha >= beta) {
+                worker._ordering.cutoff(board, maximizing, ply, depth, move, board.getLastMove());
+                worker._counters.cutoff(numLegalMoves == 1);
+                break;
+            }
         }
-    }
 
-    private boolean moveIsInteresting(Board board, long move) {
-        if (MoveUtils.isPawnPromotion(move)) return true;
-        if (!board.empty(MoveUtils.getEnd(move))) return true;
-        return false;
+        if (numLegalMoves == 0) return noLegalMovesScore(board, maximizing);
+
+        if (depth > 3 && System.currentTimeMillis() > search._deadline) return TIMEOUT_RETURNVAL;
+        int bound = best <= alphaOriginal ? TranspositionTable.UPPER_BOUND
+                : best >= betaOriginal ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+        search._table.store(board._hash, depth, bound, best, bestMove);
+        return best;
     }
 
-    private boolean boardIsInteresting(Board board, boolean whiteIsNext, boolean endgame) {
-        // Do null move: if score doesn't change much, return false.
-        if (board.kingIsInCheck(whiteIsNext) || board.kingIsInCheck(!whiteIsNext)) return true;
+    /**
+     * @return true if the side has something besides pawns and its king, so passing the turn can't be much better than moving.
+     */
+    private static boolean hasPieces(Board board, boolean white) {
+        return ((white ? board._whites : board._blacks) & ~board._pawns & ~board._kings) != 0;
+    }
 
-        List<Long> moves = board.getAllLegalMoves(!whiteIsNext, false);
+    private int noLegalMovesScore(Board board, boolean maximizing) {
+        if (board.getRules().losesWithNoMoves(board, maximizing)) {
+            return (maximizing ? -MATE : MATE); // Checkmate, avoid at all costs.
+        } else {
+            return 0; // Draw.
+        }
+    }
 
-        if (moves.size() == 0) return true;
+    /**
+     * Searches only captures and promotions below the leaves of the main search, until the position is quiet,
+     * so a leaf is never scored in the middle of an exchange.
+     * -> Stand pat: the side to move can usually do at least as well as the static score by not capturing,
+     *    so that score is a bound to start from and often cuts off straight away.
+     * -> Delta pruning: a capture that can't bring the score back up to the bound, even with a margin to spare, is skipped.
+     * -> Captures that lose material in the exchange on their square (see winsExchange) are skipped: the side to move
+     *    would rather stand pat. Without this, positions full of queens (as in Slaughter) search every queen trade there is.
+     * -> In check there's no standing pat, and every evasion is searched, so mates at the leaves aren't missed.
+     * @param ply how many moves the position is from the root.
+     * @param depthLeft how many more plies of captures may be searched (see Rules.quiescenceDepth).
+     */
+    private int quiesce(Board board, int ply, int depthLeft, int alpha, int beta, boolean maximizing, boolean endgame, Worker worker, Search search) {
+        worker._pvLength[ply] = ply;
+        if (search._stopped) return TIMEOUT_RETURNVAL;
+        worker._counters.node(ply);
+
+        int bitbaseScore = bitbaseScore(board, maximizing, endgame, search);
+        if (bitbaseScore != NO_SCORE) return bitbaseScore;
+
+        int standPat = board.getPoints(endgame);
+        if (depthLeft == 0 || ply == MAX_PLY) return standPat;
+
+        boolean inCheck = board.kingIsInCheck(maximizing);
+        MovePicker picker = worker._pickers[ply];
+        if (inCheck) {
+            picker.init(board, maximizing, MovePicker.NO_MOVE, worker._ordering, ply);
+        } else {
+            if (maximizing ? standPat >= beta : standPat <= alpha) return standPat;
+            if (maximizing && standPat > alpha) alpha = standPat;
+            if (!maximizing && standPat < beta) beta = standPat;
+            picker.initCaptures(board, maximizing);
+        }
 
-        int returnVal = whiteIsNext ? 1000000000 : -1000000000;
-        for (long move : moves) {
+        int best = inCheck ? (maximizing ? -1000000 : 1000000) : standPat;
+        int numLegalMoves = 0;
+        for (int move = picker.next(); move != MovePicker.NO_MOVE; move = picker.next()) {
+            if (!inCheck) {
+                int gain = captureValue(board, move) + DELTA_MARGIN;
+                if (maximizing ? standPat + gain < alpha : standPat - gain > beta) continue;
+                if (!winsExchange(board, move)) continue;
+            }
+            if (!board.isLegal(move, maximizing)) continue;
+            numLegalMoves++;
             board.applyMove(move);
+            int eval = quiesce(board, ply + 1, depthLeft - 1, childAlpha(alpha), childBeta(beta), !maximizing, endgame, worker, search);
+            board.undoMove();
 
-            List<Long> reactions = board.getAllLegalMoves(whiteIsNext, false);
-            if (reactions.size() == 0) {
-                board.undoMove();
-                return true;
+            if (eval == TIMEOUT_RETURNVAL) return eval;
+            eval = decay(eval);
+
+            if (maximizing) {
+                if (eval > best) best = eval;
+                if (eval > alpha) alpha = eval;
+            } else {
+                if (eval < best) best = eval;
+                if (eval < beta) beta = eval;
             }
-            int extreme = whiteIsNext ? -1000000000 : 1000000000;
-            for(long reaction : reactions) {
-                board.applyMove(reaction);
+            if (alpha >= beta) break;
+        }
 
-                int eval = board.getPoints(endgame);
-                if ((whiteIsNext && (eval > extreme)) || (!whiteIsNext && (eval < extreme))) extreme = eval;
+        if (inCheck && numLegalMoves == 0) return noLegalMovesScore(board, maximizing);
+        return best;
+    }
 
-                board.undoMove();
+    /**
+     * @return roughly how much material the move wins: the captured piece, plus the new piece if it promotes.
+     */
+    private static int captureValue(Board board, int move) {
+        int value = MoveUtils.isEnPassant(move) ? pieceValues[1] : pieceValues[Math.abs(board.pieceAt(MoveUtils.getEnd(move)))];
+        if (MoveUtils.isPawnPromotion(move)) value += pieceValues[MoveUtils.getPawnChoice(move)] - pieceValues[1];
+        return value;
+    }
+
+    private static int quiescenceDepth(Board board) {
+        return Math.min(board.getRules().quiescenceDepth(), MAX_QUIESCENCE_PLY);
+    }
+
+    /**
+     * Static exchange evaluation: plays out the captures on the move's square, each side always taking back with its least
+     * valuable attacker, and either side free to stop when going on would cost it. Pieces behind the ones that capture
+     * (a rook behind a rook, say) join in as the way opens. Pins are ignored.
+     * @return true if the move at least breaks even. Promotions and en passant always count as breaking even.
+     */
+    private static boolean winsExchange(Board board, int move) {
+        if (MoveUtils.isPawnPromotion(move) || MoveUtils.isEnPassant(move)) return true;
+        int start = MoveUtils.getStart(move);
+        int end = MoveUtils.getEnd(move);
+        // What the side that just captured stands to lose if it's taken back, less what it has won so far.
+        int swap = pieceValue(board.pieceAt(start)) - pieceValues[Math.abs(board.pieceAt(end))];
+        if (swap <= 0) return true;
+
+        long occupancy = (board._whites | board._blacks) ^ (1L << start);
+        boolean white = board.pieceAt(start) < 0; // The side to take back next.
+        long attackers = board.attackersTo(end, occupancy);
+        boolean breaksEven = true; // For the mover, if the side to take back stops now.
+        while (true) {
+            attackers &= occupancy;
+            long own = attackers & (white ? board._whites : board._blacks);
+            if (own == 0) break;
+            breaksEven = !breaksEven;
+
+            int piece = leastValuable(board, own);
+            if (piece == 6) {
+                // The king can only take back if nothing can take it in turn.
+                if ((attackers & (white ? board._blacks : board._whites)) != 0) breaksEven = !breaksEven;
+                break;
             }
-            if ((whiteIsNext && (extreme < returnVal)) || (!whiteIsNext && (extreme > returnVal))) returnVal = extreme;
+            swap = pieceValues[piece] - swap;
+            if (swap < (breaksEven ? 1 : 0)) break;
+            long pieces = own & piecesOfType(board, piece);
+            occupancy ^= pieces & -pieces;
+            // Whatever was behind it now sees the square.
+            if (piece == 1 || piece == 3 || piece == 5) attackers |= Attacks.bishop(end, occupancy) & board._bishops;
+            if (piece == 4 || piece == 5) attackers |= Attacks.rook(end, occupancy) & board._rooks;
+            white = !white;
+        }
+        return breaksEven;
+    }
 
-            board.undoMove();
+    // The king is worth more than anything it could win, so it's only traded last.
+    private static int pieceValue(int piece) {
+        return Math.abs(piece) == 6 ? 100000 : pieceValues[Math.abs(piece)];
+    }
+
+    /**
+     * @return the type (absolute piece number) of the least valuable of pieces, which mustn't be empty.
+     */
+    private static int leastValuable(Board board, long pieces) {
+        for (int piece = 1; piece < 6; piece++) {
+            if ((pieces & piecesOfType(board, piece)) != 0) return piece;
         }
-        int offset = board.getPoints(endgame)- returnVal;
-        if (offset < 0) offset = 0 - offset;
-        return offset > 50;
+        return 6;
     }
-}
 
-interface MoveScoreUpdater {
-    void updateScore(int newScore, int depth);
+    // Queens are on both the bishop and the rook bitboards, so those are narrowed to the pieces that are only one or the other.
+    private static long piecesOfType(Board board, int piece) {
+        switch (piece) {
+            case 1: return board._pawns;
+            case 2: return board._knights;
+            case 3: return board._bishops & ~board._rooks;
+            case 4: return board._rooks & ~board._bishops;
+            case 5: return board._bishops & board._rooks;
+            default: return board._kings;
+        }
+    }
 }
@@ -0,0 +1,418 @@
+package evaluation;
+
+import board.Attacks;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Makes the tables in Bitbases by retrograde analysis: working backwards from the positions whose result is known.
+ * -> While it's made, a table covers every placement of its pieces (no symmetry), with one state per position:
+ *    either its result and the level (in plies) it was found at, or, while unknown, how many of its moves haven't been
+ *    shown to lose yet.
+ * -> First, every position is looked at once. Mates are losses, stalemates draws. A capture or promotion leaves the table,
+ *    and its result comes from the smaller table it leads to: one that leaves the opponent lost wins outright, and one
+ *    that wins for the opponent doesn't count as a move. A position whose every move wins for the opponent is lost.
+ * -> Then level by level: every position lost at the level makes each position that could have moved into it won, and
+ *    every position won makes them one move closer to lost (when the count reaches 0). The moves into a position are
+ *    found by moving its pieces backwards (pawns included, but not captures or promotions, which come from other tables).
+ * -> When a level finds nothing new, whatever is still unknown is a draw: neither side can force anything.
+ * -> Each pass over the positions is split between threads. The states of the positions a thread moves back into may be
+ *    changed by other threads at the same time, so they're only changed by compare-and-set.
+ * -> En passant is ignored: a double pawn push counts as a normal move.
+ */
+
+class BitbaseGenerator {
+    private static final VarHandle STATES = MethodHandles.arrayElementVarHandle(short[].class);
+    // States with this bit are resolved: (RESOLVED | result << 8 | level). Below it, they're a count of moves.
+    private static final int RESOLVED = 0x4000;
+    // The level of draws and illegal positions, which are never moved back from.
+    private static final int NO_LEVEL = 255;
+    private static final int DRAWN = RESOLVED | Bitbases.DRAW << 8 | NO_LEVEL; // Also illegal positions.
+    private static final int[] PROMOTIONS = {5, 4, 3, 2};
+    // Enough chunks per thread that one slow chunk doesn't leave the others waiting.
+    private static final int CHUNKS_PER_THREAD = 16;
+
+    private final Bitbases.Table _table;
+    private final int[] _pieces;
+    private final int _numPieces;
+    private final long _stmBit; // The bit of the full index that's set when the table's second side is to move.
+    private final short[] _states;
+    private final ExecutorService _threads;
+    private final int _numThreads;
+
+    private BitbaseGenerator(Bitbases.Table table, ExecutorService threads, int numThreads) {
+        _table = table;
+        _pieces = table._pieces;
+        _numPieces = _pieces.length;
+        _stmBit = 1L << (6 * _numPieces);
+        _states = new short[(int) (2 * _stmBit)];
+        _threads = threads;
+        _numThreads = numThreads;
+    }
+
+    /**
+     * Makes the tables for the given endings (or every 3 and 4 piece ending, if none are given), and the tables they need,
+     * in directory. Tables already there are kept. Leaves every table in directory loaded.
+     */
+    static void generate(Path directory, String[] endings, int numThreads) throws IOException {
+        Files.createDirectories(directory);
+        Set<String> order = new LinkedHashSet<>();
+        for (String ending : endings.length > 0 ? Arrays.asList(endings) : allEndings()) {
+            addWithDependencies(new Bitbases.Table(ending)._pieces, order);
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(numThreads);
+        try {
+            Bitbases.load(directory);
+            for (String name : order) {
+                Path file = directory.resolve(name + Bitbases.FILE_SUFFIX);
+                if (Files.exists(file)) continue;
+
+                long start = System.currentTimeMillis();
+                BitbaseGenerator generator = new BitbaseGenerator(new Bitbases.Table(name), threads, numThreads);
+                int levels = generator.solve();
+                Files.write(file, generator.pack());
+                Bitbases.load(directory);
+                System.out.println(name + ": " + levels + " levels, " + (System.currentTimeMillis() - start) + " ms");
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    private static List<String> allEndings() {
+        List<String> endings = new ArrayList<>();
+        int[] pieces = {5, 4, 3, 2, 1};
+        for (int i = 0; i < pieces.length; i++) {
+            endings.add(Bitbases.canonicalName(new int[] {6, pieces[i], -6}));
+            for (int j = i; j < pieces.length; j++) {
+                endings.add(Bitbases.canonicalName(new int[] {6, pieces[i], pieces[j], -6}));
+                endings.add(Bitbases.canonicalName(new int[] {6, pieces[i], -6, -pieces[j]}));
+            }
+        }
+        return endings;
+    }
+
+    /**
+     * Adds the ending to order after every ending a capture or promotion in it leads to.
+     */
+    private static void addWithDependencies(int[] pieces, Set<String> order) {
+        String name = Bitbases.canonicalName(pieces);
+        if (pieces.length <= 2 || order.contains(name)) return;
+        for (int i = 0; i < pieces.length; i++) {
+            int piece = Math.abs(pieces[i]);
+            if (piece == 6) continue;
+            int[] captured = new int[pieces.length - 1];
+            for (int j = 0, k = 0; j < pieces.length; j++) {
+                if (j != i) captured[k++] = pieces[j];
+            }
+            addWithDependencies(captured, order);
+            if (piece == 1) {
+                for (int promotion : PROMOTIONS) {
+                    int[] promoted = pieces.clone();
+                    promoted[i] = pieces[i] > 0 ? promotion : -promotion;
+                    addWithDependencies(promoted, order);
+                }
+            }
+        }
+        order.add(name);
+    }
+
+    /**
+     * Works out every position's result.
+     * @return the number of levels it took.
+     */
+    private int solve() throws IOException {
+        parallel((start, end) -> {
+            Scratch scratch = new Scratch(_numPieces);
+            for (int i = start; i < end; i++) _states[i] = (short) initialState(i, scratch);
+            return false;
+        });
+
+        for (int level = 0; ; level++) {
+            if (level == NO_LEVEL - 1) throw new IllegalStateException(_table._name + " needs too many levels");
+            int current = level;
+            boolean progress = parallel((start, end) -> {
+                Scratch scratch = new Scratch(_numPieces);
+                boolean found = false;
+                for (int i = start; i < end; i++) {
+                    int state = _states[i];
+                    if ((state & RESOLVED) != 0 && (state & 255) == current) found |= moveBack(i, (state >> 8) & 3, current + 1, scratch);
+                }
+                return found;
+            });
+            if (!progress) return level + 1;
+        }
+    }
+
+    /**
+     * @return the state of the position with full index i, from its own moves.
+     */
+    private int initialState(int i, Scratch scratch) {
+        boolean whiteToMove = (i & _stmBit) == 0;
+        int[] squares = scratch._squares;
+        long occupied = decode(i, squares);
+        if (Long.bitCount(occupied) != _numPieces) return DRAWN;
+        long whites = 0;
+        for (int j = 0; j < _numPieces; j++) {
+            if (Math.abs(_pieces[j]) == 1 && (squares[j] < 8 || squares[j] >= 56)) return DRAWN;
+            if (_pieces[j] > 0) whites |= 1L << squares[j];
+        }
+        // The side that just moved can't be in check.
+        if (inCheck(_pieces, squares, _numPieces, !whiteToMove, occupied)) return DRAWN;
+
+        long own = whiteToMove ? whites : occupied & ~whites;
+        int legalMoves = 0;
+        int count = 0;
+        for (int j = 0; j < _numPieces; j++) {
+            int piece = _pieces[j];
+            if (piece > 0 != whiteToMove) continue;
+            int from = squares[j];
+            long targets;
+            if (Math.abs(piece) == 1) {
+                targets = Attacks.pawn(whiteToMove, from) & occupied & ~own;
+                int push = whiteToMove ? from + 8 : from - 8;
+                if ((occupied >>> push & 1) == 0) {
+                    targets |= 1L << push;
+                    int doublePush = whiteToMove ? push + 8 : push - 8;
+                    boolean startRank = whiteToMove ? from >> 3 == 1 : from >> 3 == 6;
+                    if (startRank && (occupied >>> doublePush & 1) == 0) targets |= 1L << doublePush;
+                }
+            } else {
+                targets = attacks(piece, from, occupied) & ~own;
+            }
+
+            for (; targets != 0; targets &= targets - 1) {
+                int to = Long.numberOfTrailingZeros(targets);
+                int n = scratch.makeMove(_pieces, squares, _numPieces, j, to);
+                if (n < 0) continue; // Captures a king, which a legal position never allows.
+                long childOccupied = 0;
+                for (int k = 0; k < n; k++) childOccupied |= 1L << scratch._childSquares[k];
+                if (inCheck(scratch._childPieces, scratch._childSquares, n, whiteToMove, childOccupied)) continue;
+                legalMoves++;
+
+                boolean promotion = Math.abs(piece) == 1 && (to < 8 || to >= 56);
+                if (n == _numPieces && !promotion) {
+                    count++;
+                    continue;
+                }
+                for (int p = 0; p < (promotion ? PROMOTIONS.length : 1); p++) {
+                    if (promotion) scratch._childPieces[scratch._moved] = whiteToMove ? PROMOTIONS[p] : -PROMOTIONS[p];
+                    int result = lookup(scratch._childPieces, scratch._childSquares, n, !whiteToMove, scratch._ordered);
+                    if (result == Bitbases.LOSS) return RESOLVED | Bitbases.WIN << 8;
+                    if (result == Bitbases.DRAW) count++; // A way out that never loses.
+                }
+            }
+        }
+
+        if (legalMoves == 0) {
+            return inCheck(_pieces, squares, _numPieces, whiteToMove, occupied) ? RESOLVED | Bitbases.LOSS << 8 : DRAWN;
+        }
+        return count == 0 ? RESOLVED | Bitbases.LOSS << 8 : count;
+    }
+
+    /**
+     * Updates every position that could have moved into the position with full index i, which was resolved as result.
+     * @return true if any of them were resolved (at level).
+     */
+    private boolean moveBack(int i, int result, int level, Scratch scratch) {
+        if (result == Bitbases.DRAW) return false;
+        boolean whiteMoved = (i & _stmBit) != 0;
+        int[] squares = scratch._squares;
+        long occupied = decode(i, squares);
+        boolean found = false;
+        for (int j = 0; j < _numPieces; j++) {
+            int piece = _pieces[j];
+            if (piece > 0 != whiteMoved) continue;
+            int to = squares[j];
+            long origins;
+            if (Math.abs(piece) == 1) {
+                origins = 0;
+                int back = whiteMoved ? to - 8 : to + 8;
+                boolean secondRank = whiteMoved ? to >> 3 == 1 : to >> 3 == 6;
+                if (!secondRank && (occupied >>> back & 1) == 0) {
+                    origins |= 1L << back;
+                    int doubleBack = whiteMoved ? back - 8 : back + 8;
+                    boolean fourthRank = whiteMoved ? to >> 3 == 3 : to >> 3 == 4;
+                    if (fourthRank && (occupied >>> doubleBack & 1) == 0) origins |= 1L << doubleBack;
+                }
+            } else {
+                origins = attacks(piece, to, occupied) & ~occupied;
+            }
+
+            int shift = 6 * (_numPieces - 1 - j);
+            for (; origins != 0; origins &= origins - 1) {
+                int from = Long.numberOfTrailingZeros(origins);
+                int previous = (int) ((i ^ _stmBit) - ((long) to << shift) + ((long) from << shift));
+                found |= result == Bitbases.LOSS ? resolve(previous, level) : countDown(previous, level);
+            }
+        }
+        return found;
+    }
+
+    // The position has a move into a lost position, so it's won.
+    private boolean resolve(int index, int level) {
+        while (true) {
+            short state = (short) STATES.getVolatile(_states, index);
+            if ((state & RESOLVED) != 0) return false;
+            if (STATES.compareAndSet(_states, index, state, (short) (RESOLVED | Bitbases.WIN << 8 | level))) return true;
+        }
+    }
+
+    // One more of the position's moves leads to a won position. If that was the last, it's lost.
+    private boolean countDown(int index, int level) {
+        while (true) {
+            short state = (short) STATES.getVolatile(_states, index);
+            if ((state & RESOLVED) != 0) return false;
+            short next = (short) (state == 1 ? RESOLVED | Bitbases.LOSS << 8 | level : state - 1);
+            if (STATES.compareAndSet(_states, index, state, next)) return state == 1;
+        }
+    }
+
+    /**
+     * @return the results of the positions the table's file holds, 4 to a byte.
+     */
+    private byte[] pack() {
+        long size = _table.size();
+        int low = 6 * (_numPieces - 1);
+        int slots = Bitbases.kingSlots(_table._hasPawns);
+        byte[] packed = new byte[(int) ((size + 3) / 4)];
+        for (long index = 0; index < size; index++) {
+            long rest = index >>> low;
+            int king = Bitbases.kingSquare((int) (rest % slots), _table._hasPawns);
+            long full = (rest / slots) * _stmBit + ((long) king << low) + (index & ((1L << low) - 1));
+            int state = _states[(int) full];
+            int result = (state & RESOLVED) != 0 ? (state >> 8) & 3 : Bitbases.DRAW;
+            packed[(int) (index >>> 2)] |= result << ((index & 3) * 2);
+        }
+        return packed;
+    }
+
+    /**
+     * Fills squares with the squares of the pieces in the position with full index i.
+     * @return the squares occupied.
+     */
+    private long decode(int i, int[] squares) {
+        long occupied = 0;
+        for (int j = 0; j < _numPieces; j++) {
+            squares[j] = (i >>> (6 * (_numPieces - 1 - j))) & 63;
+            occupied |= 1L << squares[j];
+        }
+        return occupied;
+    }
+
+    /**
+     * @return the result for the side to move of a position in a smaller table.
+     */
+    private static int lookup(int[] pieces, int[] squares, int n, boolean whiteToMove, int[] ordered) {
+        if (n == 2) return Bitbases.DRAW;
+        long key = Bitbases.materialKey(pieces, n);
+        Bitbases.Table table = Bitbases.find(key);
+        if (table == null) throw new IllegalStateException("No table for " + Bitbases.canonicalName(Arrays.copyOf(pieces, n)));
+        return Bitbases.lookup(table, key != table._key, pieces, squares, n, whiteToMove, ordered);
+    }
+
+    /**
+     * @return true if the given side's king is attacked.
+     */
+    private static boolean inCheck(int[] pieces, int[] squares, int n, boolean white, long occupied) {
+        int king = -1;
+        for (int j = 0; j < n; j++) {
+            if (pieces[j] == (white ? 6 : -6)) king = squares[j];
+        }
+        for (int j = 0; j < n; j++) {
+            if (pieces[j] > 0 != white && (attacks(pieces[j], squares[j], occupied) >>> king & 1) != 0) return true;
+        }
+        return false;
+    }
+
+    private static long attacks(int piece, int square, long occupied) {
+        switch (Math.abs(piece)) {
+            case 1: return Attacks.pawn(piece > 0, square);
+            case 2: return Attacks.knight(square);
+            case 3: return Attacks.bishop(square, occupied);
+            case 4: return Attacks.rook(square, occupied);
+            case 5: return Attacks.queen(square, occupied);
+            default: return Attacks.king(square);
+        }
+    }
+
+    /**
+     * Runs task over the full indices, split into chunks between the threads.
+     * @return true if it returned true for any chunk.
+     */
+    private boolean parallel(ChunkTask task) throws IOException {
+        int size = _states.length;
+        int chunk = Math.max(1, size / (_numThreads * CHUNKS_PER_THREAD));
+        List<Callable<Boolean>> chunks = new ArrayList<>();
+        for (int start = 0; start < size; start += chunk) {
+            int from = start;
+            int to = Math.min(size, start + chunk);
+            chunks.add(() -> task.run(from, to));
+        }
+        boolean any = false;
+        try {
+            for (Future<Boolean> result : _threads.invokeAll(chunks)) any |= result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted making " + _table._name, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed making " + _table._name, e.getCause());
+        }
+        return any;
+    }
+
+    private interface ChunkTask {
+        boolean run(int start, int end);
+    }
+
+    /*
+     * Arrays one thread reuses for every position, so the passes don't allocate.
+     */
+    private static class Scratch {
+        final int[] _squares;
+        final int[] _childPieces;
+        final int[] _childSquares;
+        final int[] _ordered; // For looking up the child in its table (see Bitbases.lookup).
+        int _moved; // Where the moved piece is in the child arrays.
+
+        Scratch(int numPieces) {
+            _squares = new int[numPieces];
+            _childPieces = new int[numPieces];
+            _childSquares = new int[numPieces];
+            _ordered = new int[numPieces];
+        }
+
+        /**
+         * Fills the child arrays with the position after piece j moves to square to, capturing whatever is there.
+         * @return the number of pieces left, or -1 if the move captures a king.
+         */
+        int makeMove(int[] pieces, int[] squares, int n, int j, int to) {
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                if (i != j && squares[i] == to) {
+                    if (Math.abs(pieces[i]) == 6) return -1;
+                    continue;
+                }
+                if (i == j) _moved = k;
+                _childPieces[k] = pieces[i];
+                _childSquares[k++] = i == j ? to : squares[i];
+            }
+            return k;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package evaluation;
+
+import board.Board;
+import board.BoardInfo;
+import board.Rules;
+import board.Zobrist;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Win/draw/loss tables for endings with 3 or 4 pieces (kings included), so the search knows their result without searching them.
+ * -> One table per ending, named by its pieces, the stronger side first: KQKR is king and queen against king and rook.
+ *    The table's first side is called white, but it serves both colors: a position where black has the stronger pieces
+ *    is flipped top to bottom, with the colors and the side to move swapped, before looking it up.
+ * -> Every position of an ending has 2 bits in the table's file: its result for the side to move (WIN, DRAW or LOSS).
+ *    Illegal positions are stored as DRAW, and never looked up.
+ * -> Files are indexed by the squares of the pieces, in the table's order, and the side to move. Symmetry makes most of
+ *    them redundant: the board can be mirrored left to right so the first king is on files a-d, and without pawns, also
+ *    top to bottom and along the a1-h8 diagonal, so the king is in the a1-d1-d4 triangle. Files only hold those positions.
+ * -> Files are memory mapped, so loading them costs next to nothing, and probing reads 1 byte.
+ * -> Castling and en passant are left out, as in most bitbases: positions where either is possible aren't probed.
+ * -> The tables are made by BitbaseGenerator. main() runs it: java evaluation.Bitbases data/bitbases [KQKR KPK ...]
+ *    Without endings, it makes every 3 and 4 piece table. A table needs the tables its captures and promotions lead to,
+ *    and those are made first.
+ */
+
+public abstract class Bitbases {
+    public static final int MAX_PIECES = 4;
+    public static final Path DEFAULT_DIRECTORY = Paths.get("data/bitbases");
+
+    // Results, for the side to move. UNKNOWN means there's no table for the position, or it can't be probed.
+    public static final int DRAW = 0;
+    public static final int WIN = 1;
+    public static final int LOSS = 2;
+    public static final int UNKNOWN = -1;
+
+    static final String FILE_SUFFIX = ".bin";
+    private static final String PIECE_LETTERS = " PNBRQK";
+    // The order pieces of one side are listed in, within a table: king first, then the strongest.
+    private static final String PIECE_ORDER = "KQRBNP";
+
+    // The number of each square inside the a1-d1-d4 triangle, or -1 if it's outside.
+    private static final int[] triangleSlots = new int[64];
+
+    private static volatile Table[] tables = new Table[0];
+
+    // Where probe lays out the position, so probing doesn't allocate. Every search thread probes, so each has its own.
+    private static final ThreadLocal<ProbeArrays> probeArrays = ThreadLocal.withInitial(ProbeArrays::new);
+
+    private static class ProbeArrays {
+        final int[] _pieces = new int[MAX_PIECES];
+        final int[] _squares = new int[MAX_PIECES];
+        final int[] _ordered = new int[MAX_PIECES];
+    }
+
+    static {
+        Arrays.fill(triangleSlots, -1);
+        int slot = 0;
+        for (int file = 0; file < 4; file++) {
+            for (int rank = 0; rank <= file; rank++) {
+                triangleSlots[rank * 8 + file] = slot++;
+            }
+        }
+        try {
+            if (Files.isDirectory(DEFAULT_DIRECTORY)) load(DEFAULT_DIRECTORY);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * One ending's table.
+     * -> _pieces are the pieces in the order the file indexes them: the first side's king and pieces (as positive numbers,
+     *    see Board), then the second side's (negative), each strongest first.
+     */
+    static class Table {
+        final String _name;
+        final int[] _pieces;
+        final boolean _hasPawns;
+        final long _key; // The material key (see Zobrist.materialKey) with the first side as white,
+        final long _flippedKey; // and as black.
+        MappedByteBuffer _data;
+
+        Table(String name) {
+            _name = name;
+            int secondKing = name.indexOf('K', 1);
+            if (!name.startsWith("K") || secondKing < 0) throw new IllegalArgumentException("Not an ending: " + name);
+            _pieces = new int[name.length()];
+            for (int i = 0; i < name.length(); i++) {
+                int piece = PIECE_LETTERS.indexOf(name.charAt(i));
+                if (piece <= 0 || (piece == 6 && i != 0 && i != secondKing)) throw new IllegalArgumentException("Not an ending: " + name);
+                _pieces[i] = i < secondKing ? piece : -piece;
+            }
+            if (!name.equals(canonicalName(_pieces))) throw new IllegalArgumentException(name + " should be " + canonicalName(_pieces));
+            _hasPawns = name.indexOf('P') >= 0;
+            _key = materialKey(_pieces, false);
+            _flippedKey = materialKey(_pieces, true);
+        }
+
+        /**
+         * @return the number of positions the file holds.
+         */
+        long size() {
+            long size = 2 * kingSlots(_hasPawns);
+            for (int i = 1; i < _pieces.length; i++) size *= 64;
+            return size;
+        }
+
+        int get(long index) {
+            return (_data.get((int) (index >>> 2)) >>> ((index & 3) * 2)) & 3;
+        }
+    }
+
+    /**
+     * Maps every table file in directory, replacing any tables loaded before.
+     */
+    public static synchronized void load(Path directory) throws IOException {
+        List<Table> loaded = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Table table = new Table(name.substring(0, name.length() - FILE_SUFFIX.length()));
+                table._data = map(file, (table.size() + 3) / 4);
+                loaded.add(table);
+            }
+        }
+        tables = loaded.toArray(new Table[0]);
+    }
+
+    static MappedByteBuffer map(Path file, long expectedSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != expectedSize) throw new IOException(file + " should be " + expectedSize + " bytes");
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize);
+        }
+    }
+
+    /**
+     * @return the number of tables loaded.
+     */
+    public static int count() {
+        return tables.length;
+    }
+
+    /**
+     * @return true if board's position could be in a table: few enough pieces, standard rules, and no castling or en passant.
+     */
+    public static boolean canProbe(Board board) {
+        if (Long.bitCount(board._whites | board._blacks) > MAX_PIECES || tables.length == 0) return false;
+        if (board.getRules() != Rules.CHESS || Long.bitCount(board._kings) != 2) return false;
+        int info = board._info;
+        if (BoardInfo.lastMoveWasDoublePawnMove(info)) return false;
+        return !canCastle(board, true) && !canCastle(board, false);
+    }
+
+    // The flags alone aren't enough: they stay clear when a rook is captured without ever moving.
+    private static boolean canCastle(Board board, boolean white) {
+        int info = board._info;
+        int king = white ? 4 : 60;
+        if (board.pieceAt(king) != (white ? 6 : -6)) return false;
+        if (white ? BoardInfo.whiteKingHasMoved(info) : BoardInfo.blackKingHasMoved(info)) return false;
+        boolean aRook = !(white ? BoardInfo.whiteCastleA1HasMoved(info) : BoardInfo.blackCastleA7HasMoved(info))
+                && board.pieceAt(king - 4) == (white ? 4 : -4);
+        boolean hRook = !(white ? BoardInfo.whiteCastleH1HasMoved(info) : BoardInfo.blackCastleH7HasMoved(info))
+                && board.pieceAt(king + 3) == (white ? 4 : -4);
+        return aRook || hRook;
+    }
+
+    /**
+     * Call only if canProbe(board).
+     * @return WIN, DRAW or LOSS for the side to move, or UNKNOWN if there's no table for the position's pieces.
+     */
+    public static int probe(Board board, boolean whiteToMove) {
+        long occupied = board._whites | board._blacks;
+        int n = Long.bitCount(occupied);
+        if (n == 2) return DRAW;
+        Table table = find(board._materialKey);
+        if (table == null) return UNKNOWN;
+
+        ProbeArrays arrays = probeArrays.get();
+        int[] pieces = arrays._pieces;
+        int[] squares = arrays._squares;
+        for (int i = 0; occupied != 0; i++, occupied &= occupied - 1) {
+            squares[i] = Long.numberOfTrailingZeros(occupied);
+            pieces[i] = board.pieceAt(squares[i]);
+        }
+        return lookup(table, board._materialKey != table._key, pieces, squares, n, whiteToMove, arrays._ordered);
+    }
+
+    /**
+     * @return the table for positions with the given material key (as either color), or null if none is loaded.
+     */
+    static Table find(long materialKey) {
+        for (Table table : tables) {
+            if (table._key == materialKey || table._flippedKey == materialKey) return table;
+        }
+        return null;
+    }
+
+    /**
+     * @param flip true if the position's white has the pieces of the table's second side.
+     * @param pieces the first n are the pieces on the board, in any order, and squares are where they are.
+     * @param ordered where the squares are put in the table's order. At least n long.
+     * @return the result for the side to move, from table (which has to be the one for these pieces).
+     */
+    static int lookup(Table table, boolean flip, int[] pieces, int[] squares, int n, boolean whiteToMove, int[] ordered) {
+        long used = 0;
+        for (int slot = 0; slot < n; slot++) {
+            for (int i = 0; i < n; i++) {
+                int piece = flip ? -pieces[i] : pieces[i];
+                if ((used >>> i & 1) == 0 && piece == table._pieces[slot]) {
+                    used |= 1L << i;
+                    ordered[slot] = flip ? squares[i] ^ 56 : squares[i];
+                    break;
+                }
+            }
+        }
+        return table.get(index(ordered, n, whiteToMove != flip, table._hasPawns));
+    }
+
+    /**
+     * @param squares the first n are the squares of a table's pieces, in its order. Changed to the squares of the
+     *        position it's stored as.
+     * @param whiteToMove true if the table's first side is to move.
+     * @return the position's index in the table's file.
+     */
+    static long index(int[] squares, int n, boolean whiteToMove, boolean hasPawns) {
+        int king = squares[0];
+        int transform = 0;
+        if ((king & 7) > 3) transform |= 7;
+        if (!hasPawns && (king >> 3) > 3) transform |= 56;
+        king ^= transform;
+        boolean transpose = !hasPawns && (king >> 3) > (king & 7);
+
+        long index = whiteToMove ? 0 : 1;
+        for (int i = 0; i < n; i++) {
+            int square = squares[i] ^ transform;
+            if (transpose) square = ((square & 7) << 3) | (square >> 3);
+            squares[i] = square;
+            index = i == 0 ? index * kingSlots(hasPawns) + kingSlot(square, hasPawns) : index * 64 + square;
+        }
+        return index;
+    }
+
+    static int kingSlots(boolean hasPawns) {
+        return hasPawns ? 32 : 10;
+    }
+
+    private static int kingSlot(int square, boolean hasPawns) {
+        return hasPawns ? (square >> 3) * 4 + (square & 7) : triangleSlots[square];
+    }
+
+    /**
+     * The inverse of kingSlot.
+     */
+    static int kingSquare(int slot, boolean hasPawns) {
+        if (hasPawns) return (slot / 4) * 8 + slot % 4;
+        for (int square = 0; ; square++) {
+            if (triangleSlots[square] == slot) return square;
+        }
+    }
+
+    /**
+     * @return the ending's name, with the stronger side first.
+     */
+    static String canonicalName(int[] pieces) {
+        String white = sideName(pieces, true);
+        String black = sideName(pieces, false);
+        return compareStrength(white, black) >= 0 ? white + black : black + white;
+    }
+
+    private static String sideName(int[] pieces, boolean white) {
+        StringBuilder name = new StringBuilder();
+        for (char letter : PIECE_ORDER.toCharArray()) {
+            int piece = PIECE_LETTERS.indexOf(letter);
+            for (int p : pieces) {
+                if (p == (white ? piece : -piece)) name.append(letter);
+            }
+        }
+        return name.toString();
+    }
+
+    // More pieces is stronger, and then the stronger pieces (by PIECE_ORDER, so KQ > KR > KP).
+    private static int compareStrength(String side1, String side2) {
+        if (side1.length() != side2.length()) return side1.length() - side2.length();
+        for (int i = 0; i < side1.length(); i++) {
+            int difference = PIECE_ORDER.indexOf(side2.charAt(i)) - PIECE_ORDER.indexOf(side1.charAt(i));
+            if (difference != 0) return difference;
+        }
+        return 0;
+    }
+
+    private static long materialKey(int[] pieces, boolean flip) {
+        int[] flipped = new int[pieces.length];
+        for (int i = 0; i < pieces.length; i++) flipped[i] = flip ? -pieces[i] : pieces[i];
+        return materialKey(flipped, pieces.length);
+    }
+
+    /**
+     * @return the material key of the first n pieces, as Board._materialKey would have it.
+     */
+    static long materialKey(int[] pieces, int n) {
+        int[] counts = new int[13];
+        long key = 0;
+        for (int i = 0; i < n; i++) {
+            key ^= Zobrist.materialKey(pieces[i], counts[pieces[i] + 6]++);
+        }
+        return key;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) throw new IllegalArgumentException("Usage: Bitbases <directory> [endings]");
+        try {
+            BitbaseGenerator.generate(Paths.get(args[0]), Arrays.copyOfRange(args, 1, args.length),
+                    Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -23,20 +23,21 @@ public class BoardEvaluator {
     }
 
     public int getPoints(Board board, boolean endgame) {
+        if (Long.bitCount(board._whites | board._blacks) <= Endgames.MAX_PIECES) {
+            int ending = Endgames.find(board);
+            if (ending >= 0) return Endgames.evaluate(board, ending);
+        }
+
         long protectedWhite = 0;
         long protectedBlack = 0;
 
         int score = 0;
-        if (endgame) {
-            for (byte i = 0; i < 64; i++) {
-                if (!board.empty(i)) score += piecePointsEnd[board.pieceAt(i) + 6][i];
-            }
-        } else {
-            for (byte i = 0; i < 64; i++) {
-                if (!board.empty(i)) score += piecePoints[board.pieceAt(i) + 6][i];
-            }
+        int[][] points = endgame ? piecePointsEnd : piecePoints;
+        for (long pieces = board._whites | board._blacks; pieces != 0; pieces &= pieces - 1) {
+            int i = Long.numberOfTrailingZeros(pieces);
+            score += points[board.pieceAt(i) + 6][i];
         }
-        return score;
+        return Endgames.scale(board, score);
     }
 
     private static int[][] getPiecePoints(String path) {
@@ -0,0 +1,176 @@
+package evaluation;
+
+import board.Board;
+import board.Zobrist;
+
+/*
+ * Specialized evaluators for endgames the piece tables don't understand.
+ * -> Each one is registered under the material key of its pieces (see Zobrist.materialKey), once for each color,
+ *    so finding the evaluator for a position only compares Board._materialKey against a handful of keys.
+ * -> Won endings (KQK, KRK, KBBK, KBNK) score KNOWN_WIN, plus bonuses for driving the lone king to the edge
+ *    (or the right corner) and bringing the kings together, so the search can make progress towards mate.
+ * -> Endings that can't be won (KK, KNK, KBK, KNNK) score 0.
+ * -> Positions without a specialized evaluator can still be scaled down when the side ahead can't force a win.
+ */
+
+abstract class Endgames {
+    // Every registered ending has at most this many pieces, so bigger positions don't need to look.
+    static final int MAX_PIECES = 4;
+
+    private static final int KNOWN_WIN = 5000;
+
+    private static final int KNIGHT_VALUE = 300;
+    private static final int BISHOP_VALUE = 300;
+    private static final int ROOK_VALUE = 500;
+    private static final int QUEEN_VALUE = 780;
+
+    private static final int MAX_ENDINGS = 16;
+    private static final long[] keys = new long[MAX_ENDINGS];
+    private static final EndgameEvaluator[] evaluators = new EndgameEvaluator[MAX_ENDINGS];
+    private static final boolean[] strongIsWhite = new boolean[MAX_ENDINGS];
+    private static int numEndings = 0;
+
+    static {
+        add("KQ", Endgames::evaluateKXK);
+        add("KR", Endgames::evaluateKXK);
+        add("KBB", Endgames::evaluateKBBK);
+        add("KBN", Endgames::evaluateKBNK);
+        add("K", Endgames::evaluateDraw);
+        add("KN", Endgames::evaluateDraw);
+        add("KB", Endgames::evaluateDraw);
+        add("KNN", Endgames::evaluateDraw);
+    }
+
+    /**
+     * @return the index of the specialized evaluator for board, or -1 if there isn't one.
+     */
+    static int find(Board board) {
+        for (int i = 0; i < numEndings; i++) {
+            if (keys[i] == board._materialKey) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param ending an index returned by find.
+     * @return the score of board from white's point of view.
+     */
+    static int evaluate(Board board, int ending) {
+        int score = evaluators[ending].evaluate(board, strongIsWhite[ending]);
+        return strongIsWhite[ending] ? score : -score;
+    }
+
+    /**
+     * Without pawns, being up a minor piece or less is rarely enough to win, so the score is cut down.
+     * A lone queen is the exception: it beats a rook or a minor piece, however close their values are.
+     * @param score the score from white's point of view.
+     */
+    static int scale(Board board, int score) {
+        if (Long.bitCount(board._kings) != 2) return score; // Variants without both kings win differently.
+        int strong = score > 0 ? 1 : -1;
+        if (board.pieceCount(strong) != 0) return score;
+
+        int strongMaterial = nonPawnMaterial(board, strong);
+        int weakMaterial = nonPawnMaterial(board, -strong);
+        if (strongMaterial - weakMaterial > BISHOP_VALUE) return score;
+        if (strongMaterial == QUEEN_VALUE && board.pieceCount(5 * strong) == 1 && weakMaterial <= ROOK_VALUE) return score;
+        return strongMaterial < ROOK_VALUE ? score / 16 : score / 4;
+    }
+
+    private static int evaluateKXK(Board board, boolean strongIsWhite) {
+        int strongKing = kingSquare(board, strongIsWhite);
+        int weakKing = kingSquare(board, !strongIsWhite);
+        return KNOWN_WIN + nonPawnMaterial(board, strongIsWhite ? 1 : -1)
+                + 20 * centerDistance(weakKing) + 10 * (7 - distance(strongKing, weakKing));
+    }
+
+    private static int evaluateKBBK(Board board, boolean strongIsWhite) {
+        long bishops = board._bishops & (strongIsWhite ? board._whites : board._blacks);
+        long darkSquares = 0xAA55AA55AA55AA55L;
+        if ((bishops & darkSquares) == 0 || (bishops & ~darkSquares) == 0) return 0; // Same colored bishops can't mate.
+        return evaluateKXK(board, strongIsWhite);
+    }
+
+    private static int evaluateKBNK(Board board, boolean strongIsWhite) {
+        int strongKing = kingSquare(board, strongIsWhite);
+        int weakKing = kingSquare(board, !strongIsWhite);
+        long bishop = board._bishops & (strongIsWhite ? board._whites : board._blacks);
+
+        // Mate only works in a corner the bishop can reach: a1/h8 for a dark squared bishop, h1/a8 for a light one.
+        boolean darkBishop = (bishop & 0xAA55AA55AA55AA55L) != 0;
+        int cornerDistance = darkBishop ? Math.min(distance(weakKing, 0), distance(weakKing, 63))
+                : Math.min(distance(weakKing, 7), distance(weakKing, 56));
+        return KNOWN_WIN + KNIGHT_VALUE + BISHOP_VALUE
+                + 20 * (7 - cornerDistance) + 10 * (7 - distance(strongKing, weakKing));
+    }
+
+    private static int evaluateDraw(Board board, boolean strongIsWhite) {
+        return 0;
+    }
+
+    /**
+     * @param strong 1 for white, -1 for black.
+     */
+    private static int nonPawnMaterial(Board board, int strong) {
+        return KNIGHT_VALUE * board.pieceCount(2 * strong) + BISHOP_VALUE * board.pieceCount(3 * strong)
+                + ROOK_VALUE * board.pieceCount(4 * strong) + QUEEN_VALUE * board.pieceCount(5 * strong);
+    }
+
+    private static int kingSquare(Board board, boolean white) {
+        return Long.numberOfTrailingZeros(board._kings & (white ? board._whites : board._blacks));
+    }
+
+    // The number of king moves between two squares.
+    private static int distance(int a, int b) {
+        return Math.max(Math.abs(a % 8 - b % 8), Math.abs(a / 8 - b / 8));
+    }
+
+    // 0 for the four center squares, up to 3 on the edge.
+    private static int centerDistance(int square) {
+        int file = square % 8;
+        int rank = square / 8;
+        return Math.max(3 - Math.min(file, 7 - file), 3 - Math.min(rank, 7 - rank));
+    }
+
+    /**
+     * Registers evaluator for the ending where one side has strongPieces and the other a lone king, for both colors.
+     * @param strongPieces the pieces of the strong side as letters, for example "KBN".
+     */
+    private static void add(String strongPieces, EndgameEvaluator evaluator) {
+        for (boolean white : new boolean[] {true, false}) {
+            long key = materialKey(strongPieces, white);
+            if (!white && key == keys[numEndings - 1]) continue; // KK is the same ending for both colors.
+            keys[numEndings] = key;
+            evaluators[numEndings] = evaluator;
+            strongIsWhite[numEndings] = white;
+            numEndings++;
+        }
+    }
+
+    /**
+     * @return the material key of a position where the given side has pieces, and the other side has only its king.
+     */
+    private static long materialKey(String pieces, boolean white) {
+        int[] counts = new int[13];
+        for (char c : pieces.toCharArray()) {
+            int piece = "PNBRQK".indexOf(c) + 1;
+            counts[(white ? piece : -piece) + 6]++;
+        }
+        counts[(white ? -6 : 6) + 6]++;
+
+        long key = 0;
+        for (int piece = 0; piece < 13; piece++) {
+            for (int i = 0; i < counts[piece]; i++) {
+                key ^= Zobrist.materialKey(piece - 6, i);
+            }
+        }
+        return key;
+    }
+}
+
+interface EndgameEvaluator {
+    /**
+     * @return the score from the strong side's point of view.
+     */
+    int evaluate(Board board, boolean strongIsWhite);
+}
@@ -0,0 +1,315 @@
+package evaluation;
+
+import board.Board;
+import board.EpdReader;
+import board.Position;
+import moves.MoveUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Looks for forced mates by proof-number search, apart from the main search.
+ * -> The attacker only plays checks, and the defender every legal move, so the tree stays narrow and deep mates are reachable
+ *    where alpha-beta would spend its time on quiet moves. The price: mates that need a quiet move aren't found.
+ * -> Every node has a proof number (how many leaves still need to be shown to be mates for it to be a mate) and a disproof
+ *    number (the same for showing it isn't). The attacker needs one child proven, so takes the smallest proof number of its
+ *    children and the sum of their disproof numbers; the defender needs all of them proven, so the other way around.
+ *    Each step expands the leaf under the most proving path, then updates the numbers back up to the root.
+ * -> The attacker has at most maxMoves moves. Positions where it runs out, or can't check, are disproven.
+ * -> The tree is kept in memory until the root is solved or a limit is reached. Disproven subtrees are dropped as soon as
+ *    they're disproven, so only the parts a proof still needs take up space.
+ * -> Each solver has its own node and time limits. solveInBackground() runs on its own daemon thread, so it doesn't take
+ *    workers from the AI. main() checks a file of mate puzzles (EPD lines with "dm" operations).
+ */
+
+public class MateSolver {
+    public static final long DEFAULT_MAX_NODES = 1000000;
+    public static final long DEFAULT_MAX_TIME = 10000;
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    // Shared by every solver. One thread: solving in the background should stay cheap.
+    private static final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Mate solver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long _maxNodes;
+    private final long _maxTime;
+    // Solves stop when this changes from what it was when they were asked for (see stop).
+    private volatile int _stopCount;
+
+    public enum Status {
+        MATE, // Proven: the line is a forced mate.
+        NO_MATE, // Disproven: no mate by checks within the moves allowed.
+        UNKNOWN // A limit was reached, or the solve was stopped, first.
+    }
+
+    public static class Result {
+        public final Status _status;
+        public final int[] _line; // For a MATE, the moves to it, the defender's being its longest resistance. Otherwise empty.
+        public final long _nodes;
+        public final long _time;
+
+        Result(Status status, int[] line, long nodes, long time) {
+            _status = status;
+            _line = line;
+            _nodes = nodes;
+            _time = time;
+        }
+
+        /**
+         * @return the number of attacker moves to mate, or 0 if there's no MATE.
+         */
+        public int getMateIn() {
+            return (_line.length + 1) / 2;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder line = new StringBuilder();
+            for (int move : _line) line.append(' ').append(MoveUtils.toCoordinates(move));
+            return (_status == Status.MATE ? "Mate in " + getMateIn() + ":" + line : _status.toString())
+                    + " (" + _nodes + " nodes, " + _time + " ms)";
+        }
+    }
+
+    private static class Node {
+        final Node _parent;
+        final int _move; // The move from the parent.
+        final boolean _attackerToMove;
+        final int _movesLeft; // Attacker moves left from here.
+        int _proof = 1;
+        int _disproof = 1;
+        Node[] _children; // null until expanded.
+        int _mateDepth; // Plies to mate, once proven (see proveDepths).
+
+        Node(Node parent, int move, boolean attackerToMove, int movesLeft) {
+            _parent = parent;
+            _move = move;
+            _attackerToMove = attackerToMove;
+            _movesLeft = movesLeft;
+        }
+
+        boolean isSolved() {
+            return _proof == 0 || _disproof == 0;
+        }
+    }
+
+    public MateSolver() {
+        this(DEFAULT_MAX_NODES, DEFAULT_MAX_TIME);
+    }
+
+    /**
+     * @param maxNodes the most nodes one solve may create.
+     * @param maxTime the longest one solve may take, in milliseconds.
+     */
+    public MateSolver(long maxNodes, long maxTime) {
+        _maxNodes = maxNodes;
+        _maxTime = maxTime;
+    }
+
+    /**
+     * Stops every solve running on this solver (and the ones waiting to run in the background). They return UNKNOWN.
+     */
+    public void stop() {
+        _stopCount++;
+    }
+
+    /**
+     * Solves a copy of board on the background thread.
+     */
+    public Future<Result> solveInBackground(Board board, boolean attackerIsWhite, int maxMoves) {
+        Board copy = board.clone();
+        int stopCount = _stopCount;
+        return background.submit(() -> solve(copy, attackerIsWhite, maxMoves, stopCount));
+    }
+
+    /**
+     * Looks for a mate by the side to move in at most maxMoves of its moves. board is left as it was.
+     * @throws IllegalArgumentException if maxMoves is less than 1, or the defender plays without a king (as white in Horde),
+     *         so it can't be mated.
+     */
+    public Result solve(Board board, boolean attackerIsWhite, int maxMoves) {
+        return solve(board, attackerIsWhite, maxMoves, _stopCount);
+    }
+
+    private Result solve(Board board, boolean attackerIsWhite, int maxMoves, int stopCount) {
+        if (maxMoves < 1) throw new IllegalArgumentException("maxMoves has to be at least 1");
+        if (!board.getRules().hasKing(!attackerIsWhite)) throw new IllegalArgumentException("The defender has no king to mate");
+        long start = System.currentTimeMillis();
+        Node root = new Node(null, MoveUtils.NO_MOVE, true, maxMoves);
+        long nodes = 1;
+        for (int iterations = 0; !root.isSolved(); iterations++) {
+            if (nodes >= _maxNodes || _stopCount != stopCount) break;
+            if ((iterations & 255) == 0 && System.currentTimeMillis() - start >= _maxTime) break;
+
+            // Down the most proving path: where the side to move's number is smallest, since that's what the node's number is.
+            Node node = root;
+            int depth = 0;
+            while (node._children != null) {
+                for (Node child : node._children) {
+                    if (node._attackerToMove ? child._proof == node._proof : child._disproof == node._disproof) {
+                        node = child;
+                        break;
+                    }
+                }
+                board.applyMove(node._move);
+                depth++;
+            }
+
+            nodes += expand(node, board, attackerIsWhite);
+            for (; node != null; node = node._parent) update(node);
+            for (; depth > 0; depth--) board.undoMove();
+        }
+
+        long time = System.currentTimeMillis() - start;
+        if (root._proof == 0) return new Result(Status.MATE, mateLine(root), nodes, time);
+        return new Result(root._disproof == 0 ? Status.NO_MATE : Status.UNKNOWN, new int[0], nodes, time);
+    }
+
+    /**
+     * Creates node's children (with board in node's position), and gives each its starting numbers.
+     * @return the number of children.
+     */
+    private static int expand(Node node, Board board, boolean attackerIsWhite) {
+        boolean white = node._attackerToMove == attackerIsWhite;
+        List<Node> children = new ArrayList<>();
+        for (int move : board.getAllLegalMoves(white, false)) {
+            board.applyMove(move);
+            if (node._attackerToMove) {
+                if (board.kingIsInCheck(!attackerIsWhite)) {
+                    Node child = new Node(node, move, false, node._movesLeft - 1);
+                    evaluateDefender(child, board, !white);
+                    children.add(child);
+                }
+            } else {
+                children.add(new Node(node, move, true, node._movesLeft));
+            }
+            board.undoMove();
+        }
+        node._children = children.toArray(new Node[0]);
+        return children.size();
+    }
+
+    /**
+     * Sets the numbers of a node where the defender is to move, in check. Each reply has to be proven a mate,
+     * so the more replies, the harder it is to prove.
+     */
+    private static void evaluateDefender(Node node, Board board, boolean defenderIsWhite) {
+        int replies = board.getAllLegalMoves(defenderIsWhite, false).size();
+        if (replies == 0) {
+            boolean mated = board.getRules().losesWithNoMoves(board, defenderIsWhite);
+            node._proof = mated ? 0 : INFINITY;
+            node._disproof = mated ? INFINITY : 0;
+        } else if (node._movesLeft <= 0) {
+            node._proof = INFINITY;
+            node._disproof = 0;
+        } else {
+            node._proof = replies;
+        }
+    }
+
+    private static void update(Node node) {
+        if (node._children == null) return;
+        int min = INFINITY;
+        int sum = 0;
+        for (Node child : node._children) {
+            min = Math.min(min, node._attackerToMove ? child._proof : child._disproof);
+            sum = Math.min(INFINITY, sum + (node._attackerToMove ? child._disproof : child._proof));
+        }
+        // An expanded node without children (the attacker has no checks) sums to 0, so it's disproven.
+        node._proof = node._attackerToMove ? min : sum;
+        node._disproof = node._attackerToMove ? sum : min;
+        if (node._disproof == 0) node._children = null;
+    }
+
+    /**
+     * @return the moves of the proven tree under root: the quickest mate for the attacker, against the longest defence.
+     */
+    private static int[] mateLine(Node root) {
+        proveDepths(root);
+        List<Integer> line = new ArrayList<>();
+        for (Node node = root; node._children != null && node._children.length > 0; ) {
+            Node next = null;
+            for (Node child : node._children) {
+                if (child._proof != 0) continue;
+                if (next == null || (node._attackerToMove ? child._mateDepth < next._mateDepth : child._mateDepth > next._mateDepth)) next = child;
+            }
+            line.add(next._move);
+            node = next;
+        }
+        int[] moves = new int[line.size()];
+        for (int i = 0; i < moves.length; i++) moves[i] = line.get(i);
+        return moves;
+    }
+
+    // Sets _mateDepth throughout the proven part of the tree under node.
+    private static void proveDepths(Node node) {
+        if (node._children == null || node._children.length == 0) {
+            node._mateDepth = 0;
+            return;
+        }
+        int depth = node._attackerToMove ? INFINITY : 0;
+        for (Node child : node._children) {
+            if (child._proof != 0) continue;
+            proveDepths(child);
+            depth = node._attackerToMove ? Math.min(depth, child._mateDepth + 1) : Math.max(depth, child._mateDepth + 1);
+        }
+        node._mateDepth = depth;
+    }
+
+    /**
+     * Solves every position of an EPD file that has a "dm" (direct mate) operation, and checks a mate at least that short is found.
+     * Usage: MateSolver <epd file> [-n maxNodes] [-t maxTime]
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) throw new IllegalArgumentException("Usage: MateSolver <epd file> [-n maxNodes] [-t maxTime]");
+        long maxNodes = DEFAULT_MAX_NODES;
+        long maxTime = DEFAULT_MAX_TIME;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n": maxNodes = Long.parseLong(args[++i]); break;
+                case "-t": maxTime = Long.parseLong(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        MateSolver solver = new MateSolver(maxNodes, maxTime);
+        List<String> failures = new ArrayList<>();
+        int numPositions = 0;
+        long totalNodes = 0;
+        long totalTime = 0;
+        try (EpdReader reader = EpdReader.open(Paths.get(args[0]))) {
+            for (Position position; (position = reader.next()) != null; ) {
+                String mateIn = position.getOperation("dm");
+                if (mateIn == null) continue;
+                numPositions++;
+                int expected = Integer.parseInt(mateIn.trim());
+                Result result = solver.solve(position._board, position._whiteToMove, expected);
+                totalNodes += result._nodes;
+                totalTime += result._time;
+                System.out.println("Line " + reader.getLineNumber() + ": " + result);
+                if (result._status != Status.MATE) {
+                    failures.add("line " + reader.getLineNumber() + ": expected mate in " + expected + ", got " + result + " (" + position.toFen() + ")");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.printf("%d positions, %d solved: %,d nodes in %,d ms%n", numPositions, numPositions - failures.size(), totalNodes, totalTime);
+
+        if (!failures.isEmpty()) {
+            System.err.println("MATES NOT FOUND:");
+            for (String failure : failures) System.err.println("  " + failure);
+            System.exit(1);
+        }
+    }
+}
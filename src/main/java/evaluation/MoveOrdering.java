@@ -0,0 +1,75 @@
+package evaluation;
+
+import board.Board;
+import moves.MoveUtils;
+
+import java.util.Arrays;
+
+/*
+ * What one search thread has learned about which quiet moves are good, so MovePicker can try those first:
+ * -> Killers: the last two quiet moves that caused a cutoff at each ply. Sibling positions often fall to the same move.
+ * -> History: for each side, by from and to square, how often quiet moves caused cutoffs, weighted by the depth left.
+ * -> Counter moves: for each move (by from and to square), the quiet reply that last refuted it.
+ * Captures don't need any of this: MVV-LVA orders them well from the position alone.
+ */
+
+class MoveOrdering {
+    private static final int MAX_HISTORY = 1 << 24;
+
+    private final int[] _killers;
+    private final int[] _history = new int[2 * 64 * 64];
+    private final int[] _counterMoves = new int[64 * 64];
+
+    MoveOrdering(int maxPly) {
+        _killers = new int[2 * (maxPly + 1)];
+    }
+
+    /**
+     * Call before this thread starts on a new search: killers are forgotten, and history counts for half as much.
+     */
+    void newSearch() {
+        Arrays.fill(_killers, MovePicker.NO_MOVE);
+        ageHistory();
+    }
+
+    int killer(int ply, int slot) {
+        return _killers[2 * ply + slot];
+    }
+
+    int counterMove(int previousMove) {
+        return previousMove == MovePicker.NO_MOVE ? MovePicker.NO_MOVE : _counterMoves[previousMove & 0xFFF];
+    }
+
+    int history(boolean white, int move) {
+        return _history[(white ? 0 : 64 * 64) + (move & 0xFFF)];
+    }
+
+    /**
+     * Call when move (made by white or black, at ply, with depth left) caused a cutoff.
+     * @param previousMove the move before it, or NO_MOVE.
+     */
+    void cutoff(Board board, boolean white, int ply, int depth, int move, int previousMove) {
+        if (!isQuiet(board, move)) return;
+
+        if (_killers[2 * ply] != move) {
+            _killers[2 * ply + 1] = _killers[2 * ply];
+            _killers[2 * ply] = move;
+        }
+        if (previousMove != MovePicker.NO_MOVE) _counterMoves[previousMove & 0xFFF] = move;
+
+        int index = (white ? 0 : 64 * 64) + (move & 0xFFF);
+        _history[index] += depth * depth;
+        if (_history[index] > MAX_HISTORY) ageHistory();
+    }
+
+    /**
+     * @return true if move (not yet made) is one that MovePicker hands out with the quiet moves.
+     */
+    static boolean isQuiet(Board board, int move) {
+        return board.empty(MoveUtils.getEnd(move)) && !MoveUtils.isPawnPromotion(move) && !MoveUtils.isEnPassant(move);
+    }
+
+    private void ageHistory() {
+        for (int i = 0; i < _history.length; i++) _history[i] >>= 1;
+    }
+}
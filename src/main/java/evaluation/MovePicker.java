@@ -0,0 +1,184 @@
+package evaluation;
+
+import board.Board;
+import moves.MoveBuffer;
+import moves.MoveUtils;
+
+/*
+ * Hands out the moves of a position one at a time, best guesses first, in stages, so a node that cuts off early never
+ * generates (or sorts) the later stages:
+ * -> 1: the hash move, if it's pseudo-legal in this position.
+ * -> 2: captures and promotions, most valuable victim first, and then least valuable attacker (MVV-LVA).
+ * -> 3: the two killer moves for this ply, then the counter move to the last move, if they're quiet and pseudo-legal here.
+ * -> 4: the other quiet moves, by their history score.
+ * -> Quiescence search only wants stage 2 (see initCaptures).
+ * Moves are only pseudo-legal: check each one with Board.isLegal right before searching it.
+ * One picker is kept per ply and reused, so picking moves doesn't allocate.
+ */
+
+class MovePicker {
+    static final int NO_MOVE = MoveUtils.NO_MOVE;
+
+    private static final int HASH_MOVE = 0;
+    private static final int GENERATE_CAPTURES = 1;
+    private static final int CAPTURES = 2;
+    private static final int KILLER_1 = 3;
+    private static final int KILLER_2 = 4;
+    private static final int COUNTER_MOVE = 5;
+    private static final int GENERATE_QUIETS = 6;
+    private static final int QUIETS = 7;
+    private static final int DONE = 8;
+
+    private final MoveBuffer _moves;
+    // The moves of the current stage, each as (score << 16) | move, so picking the best is picking the biggest.
+    private long[] _scored;
+    private Board _board;
+    private boolean _forWhite;
+    private MoveOrdering _ordering;
+    private int _hashMove;
+    private int _killer1;
+    private int _killer2;
+    private int _counterMove;
+    private int _stage;
+    private boolean _capturesOnly;
+    private int _index;
+
+    MovePicker(int capacity) {
+        _moves = new MoveBuffer(capacity);
+        _scored = new long[capacity];
+    }
+
+    int capacity() {
+        return _moves.capacity();
+    }
+
+    /**
+     * Starts picking moves for a new position.
+     * @param hashMove the move to try first, or NO_MOVE.
+     * @param ply how far from the root the position is, for its killer moves.
+     */
+    void init(Board board, boolean forWhite, int hashMove, MoveOrdering ordering, int ply) {
+        _board = board;
+        _forWhite = forWhite;
+        _ordering = ordering;
+        _hashMove = hashMove;
+        _killer1 = ordering.killer(ply, 0);
+        _killer2 = ordering.killer(ply, 1);
+        _counterMove = ordering.counterMove(board.getLastMove());
+        _stage = HASH_MOVE;
+        _capturesOnly = false;
+    }
+
+    /**
+     * Starts picking only the captures and promotions of a new position.
+     */
+    void initCaptures(Board board, boolean forWhite) {
+        _board = board;
+        _forWhite = forWhite;
+        _hashMove = NO_MOVE;
+        _stage = GENERATE_CAPTURES;
+        _capturesOnly = true;
+    }
+
+    /**
+     * @return the next pseudo-legal move, or NO_MOVE once every move has been handed out.
+     */
+    int next() {
+        while (true) {
+            switch (_stage) {
+                case HASH_MOVE:
+                    _stage = GENERATE_CAPTURES;
+                    if (_hashMove != NO_MOVE && _board.isPseudoLegal(_hashMove, _forWhite)) return _hashMove;
+                    _hashMove = NO_MOVE;
+                    break;
+                case GENERATE_CAPTURES:
+                    _board.generateCaptures(_forWhite, _moves);
+                    scoreCaptures();
+                    _stage = CAPTURES;
+                    break;
+                case CAPTURES:
+                    while (_index < _moves.size()) {
+                        int move = pickBest();
+                        if (move != _hashMove) return move; // Already handed out first.
+                    }
+                    _stage = _capturesOnly ? DONE : KILLER_1;
+                    break;
+                case KILLER_1:
+                    _stage = KILLER_2;
+                    if (isNewQuiet(_killer1)) return _killer1;
+                    _killer1 = NO_MOVE;
+                    break;
+                case KILLER_2:
+                    _stage = COUNTER_MOVE;
+                    if (_killer2 != _killer1 && isNewQuiet(_killer2)) return _killer2;
+                    _killer2 = NO_MOVE;
+                    break;
+                case COUNTER_MOVE:
+                    _stage = GENERATE_QUIETS;
+                    if (_counterMove != _killer1 && _counterMove != _killer2 && isNewQuiet(_counterMove)) return _counterMove;
+                    _counterMove = NO_MOVE;
+                    break;
+                case GENERATE_QUIETS:
+                    _board.generateQuiets(_forWhite, _moves);
+                    scoreQuiets();
+                    _stage = QUIETS;
+                    break;
+                case QUIETS:
+                    while (_index < _moves.size()) {
+                        int move = pickBest();
+                        if (move != _hashMove && move != _killer1 && move != _killer2 && move != _counterMove) return move;
+                    }
+                    _stage = DONE;
+                    break;
+                default:
+                    return NO_MOVE;
+            }
+        }
+    }
+
+    /**
+     * @return true if move is a quiet move here that hasn't been handed out as the hash move.
+     */
+    private boolean isNewQuiet(int move) {
+        return move != NO_MOVE && move != _hashMove && MoveOrdering.isQuiet(_board, move) && _board.isPseudoLegal(move, _forWhite);
+    }
+
+    private void scoreCaptures() {
+        makeRoom();
+        for (int i = 0; i < _moves.size(); i++) {
+            int move = _moves.get(i);
+            int victim = MoveUtils.isEnPassant(move) ? 1 : Math.abs(_board.pieceAt(MoveUtils.getEnd(move)));
+            int attacker = Math.abs(_board.pieceAt(MoveUtils.getStart(move)));
+            int score = 8 * (victim + MoveUtils.getPawnChoice(move)) - attacker;
+            _scored[i] = ((long) score << 16) | move;
+        }
+        _index = 0;
+    }
+
+    private void scoreQuiets() {
+        makeRoom();
+        for (int i = 0; i < _moves.size(); i++) {
+            int move = _moves.get(i);
+            _scored[i] = ((long) _ordering.history(_forWhite, move) << 16) | move;
+        }
+        _index = 0;
+    }
+
+    private void makeRoom() {
+        if (_scored.length < _moves.size()) _scored = new long[_moves.capacity()];
+    }
+
+    /**
+     * Swaps the best of the moves left to the front, and hands it out. A full sort would be wasted on nodes that cut off early.
+     */
+    private int pickBest() {
+        int best = _index;
+        for (int i = _index + 1; i < _moves.size(); i++) {
+            if (_scored[i] > _scored[best]) best = i;
+        }
+        long entry = _scored[best];
+        _scored[best] = _scored[_index];
+        _scored[_index++] = entry;
+        return (int) entry & 0xFFFF;
+    }
+}
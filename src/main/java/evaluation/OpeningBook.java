@@ -0,0 +1,174 @@
+package evaluation;
+
+import board.Board;
+import board.Fen;
+import moves.MoveUtils;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/*
+ * Opening moves, looked up by position instead of searched for.
+ * -> The book is a binary file of 16 byte entries, laid out like a Polyglot book: [KEY (8 bytes)][MOVE (2)][WEIGHT (2)][LEARN (4)],
+ *    big-endian, sorted by key (unsigned). But the key is our own Zobrist key (Board._hash), and the move is our own format
+ *    (see MoveUtils), so Polyglot's books themselves can't be read.
+ * -> The file is memory mapped, not read: opening it costs the same whatever its size, and lookups (a binary search over
+ *    the entries) only touch the pages they need.
+ * -> When a position has several moves, one is picked at random, in proportion to the weights.
+ * -> build() makes a book from a text file of opening lines in coordinate notation (see data/openings.txt), and main() runs it:
+ *    java evaluation.OpeningBook data/openings.txt data/book.bin
+ */
+
+public class OpeningBook {
+    private static final int ENTRY_SIZE = 16;
+
+    private final MappedByteBuffer _entries;
+    private final int _numEntries;
+    private final Random _random = new Random();
+
+    private OpeningBook(MappedByteBuffer entries) {
+        _entries = entries;
+        _numEntries = entries.capacity() / ENTRY_SIZE;
+    }
+
+    /**
+     * Maps the book file into memory. The file isn't read until it's probed.
+     */
+    public static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return a book move for the given side in board's position, or MoveUtils.NO_MOVE if the book doesn't have one.
+     */
+    public int probe(Board board, boolean forWhite) {
+        long key = board._hash;
+        int first = firstEntry(key);
+        if (first == _numEntries || getKey(first) != key) return MoveUtils.NO_MOVE;
+
+        List<Integer> moves = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        int totalWeight = 0;
+        for (int i = first; i < _numEntries && getKey(i) == key; i++) {
+            int move = _entries.getShort(i * ENTRY_SIZE + 8) & 0xFFFF;
+            int weight = _entries.getShort(i * ENTRY_SIZE + 10) & 0xFFFF;
+            // Keys can collide, so the move has to actually be playable here.
+            if (weight == 0 || !board.isPseudoLegal(move, forWhite) || !board.isLegal(move, forWhite)) continue;
+            moves.add(move);
+            weights.add(weight);
+            totalWeight += weight;
+        }
+        if (moves.isEmpty()) return MoveUtils.NO_MOVE;
+
+        int pick = _random.nextInt(totalWeight);
+        for (int i = 0; i < moves.size(); i++) {
+            pick -= weights.get(i);
+            if (pick < 0) return moves.get(i);
+        }
+        return moves.get(moves.size() - 1);
+    }
+
+    /**
+     * @return the number of positions and moves in the book.
+     */
+    public int size() {
+        return _numEntries;
+    }
+
+    /**
+     * @return the index of the first entry whose key is at least key (unsigned), or _numEntries if there's none.
+     */
+    private int firstEntry(long key) {
+        int low = 0;
+        int high = _numEntries;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(getKey(middle), key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long getKey(int index) {
+        return _entries.getLong(index * ENTRY_SIZE);
+    }
+
+    /**
+     * Makes a book from opening lines: one line per opening, as moves in coordinate notation from the start position
+     * (e2e4 e7e5 g1f3 ...). Every time a move is played from a position in some line, it gains 1 weight there.
+     * Blank lines and lines starting with '#' are skipped.
+     * @throws IllegalArgumentException if a line has a move that isn't legal. The message includes the line number.
+     */
+    public static void build(Path lines, OutputStream out) throws IOException {
+        // By key (unsigned, as the file is sorted), then by move: the weight.
+        Map<Long, Map<Integer, Integer>> weights = new TreeMap<>(Long::compareUnsigned);
+        try (BufferedReader reader = Files.newBufferedReader(lines, StandardCharsets.UTF_8)) {
+            String line;
+            for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                Board board = Fen.parse(Fen.START_FEN)._board;
+                boolean whiteToMove = true;
+                for (String token : line.split("\\s+")) {
+                    int move = findMove(board, whiteToMove, token);
+                    if (move == MoveUtils.NO_MOVE) {
+                        throw new IllegalArgumentException("Line " + lineNumber + ": " + token + " isn't a legal move");
+                    }
+                    weights.computeIfAbsent(board._hash, key -> new TreeMap<>()).merge(move, 1, Integer::sum);
+                    board.applyMove(move);
+                    whiteToMove = !whiteToMove;
+                }
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        for (Map.Entry<Long, Map<Integer, Integer>> position : weights.entrySet()) {
+            for (Map.Entry<Integer, Integer> move : position.getValue().entrySet()) {
+                data.writeLong(position.getKey());
+                data.writeShort(move.getKey());
+                data.writeShort(Math.min(move.getValue(), 0xFFFF));
+                data.writeInt(0);
+            }
+        }
+        data.flush();
+    }
+
+    private static int findMove(Board board, boolean whiteToMove, String coordinates) {
+        for (int move : board.getAllLegalMoves(whiteToMove, false)) {
+            if (MoveUtils.toCoordinates(move).equals(coordinates)) return move;
+        }
+        return MoveUtils.NO_MOVE;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) throw new IllegalArgumentException("Usage: OpeningBook <opening lines> <book file>");
+        try (OutputStream out = Files.newOutputStream(Paths.get(args[1]))) {
+            build(Paths.get(args[0]), out);
+            System.out.println("Wrote " + Files.size(Paths.get(args[1])) / ENTRY_SIZE + " entries to " + args[1]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
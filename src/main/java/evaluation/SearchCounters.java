@@ -0,0 +1,58 @@
+package evaluation;
+
+/*
+ * What one search thread counts while it searches.
+ * -> Every thread of a search has its own, so counting is a plain increment of memory no other thread writes: no atomics
+ *    or locks on the hot path. Totals are only added up when they're reported (see sum).
+ * -> The reporting thread reads them while their threads are still writing, so a report can be a few nodes behind.
+ * -> The padding keeps two threads' counters off the same cache line, or every increment would take the line from the other thread.
+ */
+
+class SearchCounters {
+    long _nodes;
+    long _cutoffs;
+    long _firstMoveCutoffs; // Cutoffs caused by the first move searched, a measure of how good the move ordering is.
+    long _hashProbes;
+    long _hashHits;
+    int _selectiveDepth; // The deepest ply reached, quiescence included.
+
+    @SuppressWarnings("unused")
+    private long _padding1, _padding2, _padding3, _padding4, _padding5, _padding6, _padding7;
+
+    /**
+     * Call at every node searched.
+     */
+    void node(int ply) {
+        _nodes++;
+        if (ply > _selectiveDepth) _selectiveDepth = ply;
+    }
+
+    void hashProbe(boolean hit) {
+        _hashProbes++;
+        if (hit) _hashHits++;
+    }
+
+    /**
+     * @param firstMove true if the move that caused the cutoff was the first legal move searched.
+     */
+    void cutoff(boolean firstMove) {
+        _cutoffs++;
+        if (firstMove) _firstMoveCutoffs++;
+    }
+
+    /**
+     * @return the totals of every thread's counters (and the deepest selective depth).
+     */
+    static SearchCounters sum(SearchCounters[] counters) {
+        SearchCounters total = new SearchCounters();
+        for (SearchCounters thread : counters) {
+            total._nodes += thread._nodes;
+            total._cutoffs += thread._cutoffs;
+            total._firstMoveCutoffs += thread._firstMoveCutoffs;
+            total._hashProbes += thread._hashProbes;
+            total._hashHits += thread._hashHits;
+            total._selectiveDepth = Math.max(total._selectiveDepth, thread._selectiveDepth);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,65 @@
+package evaluation;
+
+import moves.MoveUtils;
+
+/*
+ * The state of a search at the end of an iteration, or of the whole search, as told to a SearchListener.
+ * -> Counts are totals over every thread, from the start of the search. So is the time: for a search that began as a
+ *    ponder search, both include the pondering.
+ * -> The score is from white's point of view, as all of AI's scores are.
+ */
+
+public class SearchInfo {
+    public final int _depth;
+    public final int _selectiveDepth;
+    public final long _nodes;
+    public final long _time; // In milliseconds.
+    public final long _cutoffs;
+    public final long _firstMoveCutoffs;
+    public final long _hashProbes;
+    public final long _hashHits;
+    public final int _score;
+    public final int[] _principalVariation;
+    public final boolean _pondering;
+
+    SearchInfo(int depth, SearchCounters counters, long time, int score, int[] principalVariation, boolean pondering) {
+        _depth = depth;
+        _selectiveDepth = counters._selectiveDepth;
+        _nodes = counters._nodes;
+        _time = time;
+        _cutoffs = counters._cutoffs;
+        _firstMoveCutoffs = counters._firstMoveCutoffs;
+        _hashProbes = counters._hashProbes;
+        _hashHits = counters._hashHits;
+        _score = score;
+        _principalVariation = principalVariation;
+        _pondering = pondering;
+    }
+
+    public long getNodesPerSecond() {
+        return _nodes * 1000 / Math.max(1, _time);
+    }
+
+    /**
+     * @return the share of cutoffs caused by the first move searched, from 0 to 1.
+     */
+    public double getFirstMoveCutoffRate() {
+        return _cutoffs == 0 ? 0 : (double) _firstMoveCutoffs / _cutoffs;
+    }
+
+    /**
+     * @return the share of transposition table probes that found an entry, from 0 to 1.
+     */
+    public double getHashHitRate() {
+        return _hashProbes == 0 ? 0 : (double) _hashHits / _hashProbes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder();
+        for (int move : _principalVariation) line.append(' ').append(MoveUtils.toCoordinates(move));
+        return String.format("%sDepth: %d/%d, %d ms, %,d nodes (%,d nps), score %d, first move cutoffs %.0f%%, hash hits %.0f%%, pv%s",
+                _pondering ? "(pondering) " : "", _depth, _selectiveDepth, _time, _nodes, getNodesPerSecond(), _score,
+                100 * getFirstMoveCutoffRate(), 100 * getHashHitRate(), line);
+    }
+}
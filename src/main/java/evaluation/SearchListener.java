@@ -0,0 +1,28 @@
+package evaluation;
+
+/**
+ * Told how a search is going (see AI.addSearchListener). Called on the search's threads, so it should return quickly.
+ */
+public interface SearchListener {
+    /**
+     * Called each time the search completes a depth, ponder searches included.
+     */
+    void iterationFinished(SearchInfo info);
+
+    /**
+     * Called when getBestMove is about to return, with the totals of the whole search.
+     */
+    default void searchFinished(SearchInfo info) {}
+
+    /**
+     * Called when getBestMove takes over the ponder search, because the opponent made the move it was pondering on.
+     * @param info the ponder search's, up to then.
+     */
+    default void ponderHit(SearchInfo info) {}
+
+    /**
+     * Called when getBestMove throws the ponder search away, because the opponent made some other move.
+     * @param info the ponder search's.
+     */
+    default void ponderMiss(SearchInfo info) {}
+}
@@ -0,0 +1,100 @@
+package evaluation;
+
+/*
+ * Decides how long the AI thinks about one move.
+ * -> The hard limit is never passed: the search is stopped there, whatever it's doing.
+ * -> The soft limit is what the move should usually take. It's checked between iterations, and stretched or shrunk by
+ *    how the search is going: a best move that keeps changing, or a score that drops, means the position is hard and
+ *    deserves more time; a best move that has held for several iterations means it's easy, and is played early.
+ * -> A new iteration takes a few times longer than the last, so one isn't started unless it has a fair chance to finish.
+ * -> Time on the clock is split evenly over the moves still to play (an estimate, if the clock doesn't say), plus most of
+ *    the increment, so time saved on easy moves is spent on hard ones later.
+ * One per move: it keeps track of the iterations of one search.
+ */
+
+public class TimeManager {
+    // Time lost between the clock and the search, in milliseconds: starting and stopping threads, and updating the board.
+    public static final long MOVE_OVERHEAD = 100;
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+    // Iterations the best move has to hold before the move counts as easy.
+    private static final int STABLE_ITERATIONS = 4;
+
+    private final long _softLimit;
+    private final long _hardLimit;
+    private final boolean _fixed;
+
+    private int _bestMove;
+    private int _score;
+    private int _iterations;
+    private int _stableIterations;
+    private double _instability;
+    private double _scoreDropFactor = 1;
+
+    private TimeManager(long softLimit, long hardLimit, boolean fixed) {
+        _softLimit = Math.max(1, softLimit);
+        _hardLimit = Math.max(_softLimit, hardLimit);
+        _fixed = fixed;
+    }
+
+    /**
+     * Thinks for maxTime every move, less the overhead.
+     */
+    public static TimeManager fixed(long maxTime) {
+        return new TimeManager(maxTime - MOVE_OVERHEAD, maxTime - MOVE_OVERHEAD, true);
+    }
+
+    /**
+     * @param remaining the time left on the mover's clock, in milliseconds.
+     * @param increment the time added to the clock after each move.
+     * @param movesToGo the moves left until the clock is topped up, or 0 if it never is (sudden death).
+     */
+    public static TimeManager forClock(long remaining, long increment, int movesToGo) {
+        long available = Math.max(1, remaining - MOVE_OVERHEAD);
+        int moves = movesToGo > 0 ? movesToGo : DEFAULT_MOVES_TO_GO;
+        long soft = Math.min(available / moves + increment * 3 / 4, moves == 1 ? available * 9 / 10 : available / 2);
+        long hard = Math.min(soft * 4, moves == 1 ? available * 19 / 20 : available * 3 / 4);
+        return new TimeManager(soft, hard, false);
+    }
+
+    public long getSoftLimit() {
+        return _softLimit;
+    }
+
+    public long getHardLimit() {
+        return _hardLimit;
+    }
+
+    /**
+     * Call after each completed iteration.
+     * @param score the score, as the side to move sees it (higher is better for them).
+     */
+    void iterationFinished(int bestMove, int score) {
+        if (_iterations > 0) {
+            _instability /= 2;
+            if (bestMove != _bestMove) {
+                _instability += 1;
+                _stableIterations = 0;
+            } else {
+                _stableIterations++;
+            }
+            int drop = _score - score;
+            _scoreDropFactor = drop > 100 ? 2 : drop > 30 ? 1.5 : 1;
+        }
+        _bestMove = bestMove;
+        _score = score;
+        _iterations++;
+    }
+
+    /**
+     * @param elapsed the time since the search started.
+     * @return true if the search should stop now rather than start another iteration.
+     */
+    boolean shouldStop(long elapsed) {
+        if (elapsed >= _hardLimit) return true;
+        if (_fixed) return false;
+
+        double target = _softLimit * (1 + _instability / 2) * _scoreDropFactor;
+        if (_stableIterations >= STABLE_ITERATIONS) target /= 2;
+        return elapsed >= Math.min(target, _hardLimit) * 0.6;
+    }
+}
@@ -0,0 +1,84 @@
+package evaluation;
+
+import board.HashSlots;
+
+/*
+ * Remembers the result of searching a position, by its Zobrist key, so the search doesn't redo work:
+ * -> when the same position is reached by a different move order, or in the next iteration, or on the next turn.
+ * -> Each entry holds the score, whether that score is exact or only a bound, the depth it was searched to, and the best move.
+ * -> Fixed size, set in megabytes. Entries sit in buckets of two: one slot keeps the deepest search (replaced only by
+ *    something as deep, or by anything once it's from an older search), and the other always takes the newest entry.
+ * -> Stored in HashSlots, so it's shared by all search threads without locks.
+ */
+
+class TranspositionTable {
+    static final long NO_ENTRY = HashSlots.EMPTY;
+
+    static final int EXACT = 0;
+    static final int LOWER_BOUND = 1; // The real score is at least this (the search failed high).
+    static final int UPPER_BOUND = 2; // The real score is at most this (the search failed low).
+
+    /* Entry format:
+     * [SCORE (32 bits)][MOVE (16 bits)][DEPTH (8 bits)][BOUND (2 bits)][AGE (6 bits)]
+     * -> Depth is always at least 1, so an entry is never 0 (NO_ENTRY).
+     */
+
+    private HashSlots _slots;
+    private int _age;
+
+    TranspositionTable(int megabytes) {
+        resize(megabytes);
+    }
+
+    /**
+     * Throws away every entry and makes the table the given size. Not safe to call during a search.
+     */
+    void resize(int megabytes) {
+        _slots = new HashSlots(megabytes);
+    }
+
+    /**
+     * Call at the start of every search, so entries from older searches are the first to be replaced.
+     */
+    void newSearch() {
+        _age = (_age + 1) & 63;
+    }
+
+    /**
+     * @return the entry for the position with the given key, or NO_ENTRY.
+     */
+    long probe(long hash) {
+        int index = _slots.index(hash) & ~1;
+        long entry = _slots.get(index, hash);
+        return entry != NO_ENTRY ? entry : _slots.get(index + 1, hash);
+    }
+
+    /**
+     * @param bound EXACT, LOWER_BOUND or UPPER_BOUND.
+     * @param move the best move found, or MovePicker.NO_MOVE.
+     */
+    void store(long hash, int depth, int bound, int score, int move) {
+        int index = _slots.index(hash) & ~1;
+        long data = ((long) score << 32) | ((long) (move & 0xFFFF) << 16) | (Math.min(depth, 255) << 8) | (bound << 6) | _age;
+
+        long deepest = _slots.getData(index);
+        boolean sameKey = _slots.matches(index, hash, deepest);
+        if (sameKey || deepest == NO_ENTRY || depth >= getDepth(deepest) || getAge(deepest) != _age) {
+            // Keep the old best move if this search didn't find one.
+            if (sameKey && move == MovePicker.NO_MOVE) data |= (long) getMove(deepest) << 16;
+            _slots.put(index, hash, data);
+        } else {
+            _slots.put(index + 1, hash, data);
+        }
+    }
+
+    static int getScore(long entry) { return (int) (entry >> 32); }
+
+    static int getMove(long entry) { return (int) (entry >>> 16) & 0xFFFF; }
+
+    static int getDepth(long entry) { return (int) (entry >>> 8) & 255; }
+
+    static int getBound(long entry) { return (int) (entry >>> 6) & 3; }
+
+    private static int getAge(long entry) { return (int) entry & 63; }
+}
@@ -1,11 +1,25 @@
 package game;
 
+import board.Board;
 import evaluation.AI;
+import evaluation.OpeningBook;
+import evaluation.SearchInfo;
+import evaluation.SearchListener;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
 
 public class AIPlayer implements Player {
+    private static final Path BOOK_PATH = Paths.get("data/book.bin");
+    private static final Path OPENINGS_PATH = Paths.get("data/openings.txt");
+    private static OpeningBook book;
+    private static boolean bookLoaded;
+
     private boolean _isWhite;
     private Game _game;
     private AI _ai;
@@ -14,11 +28,70 @@ public class AIPlayer implements Player {
         _isWhite = isWhite;
         _game = game;
         _ai = new AI();
+        _ai.addSearchListener(new SearchListener() {
+            @Override
+            public void iterationFinished(SearchInfo info) {
+                System.out.println(info);
+            }
+
+            @Override
+            public void ponderHit(SearchInfo info) {
+                System.out.println("Ponder hit, depth " + info._depth + " already done, " + info._time + " ms saved");
+            }
+
+            @Override
+            public void ponderMiss(SearchInfo info) {
+                System.out.println("Ponder miss, " + info._time + " ms of pondering thrown away");
+            }
+        });
     }
 
     @Override
-    public long getNextMove(List<Long> options) {
-        return _ai.getBestMove(_game.getBoard(), _isWhite, _game.getAIMaxTime(), options, _game.isEndgame());
+    public int getNextMove(List<Integer> options) {
+        Board board = _game.getBoard();
+        // The book's lines are only for the normal starting position.
+        OpeningBook book = _game._type == Game.Type.CHESS ? getBook() : null;
+        if (book != null) {
+            int bookMove = book.probe(board, _isWhite);
+            if (options.contains(bookMove)) {
+                _ai.stopPondering();
+                return bookMove;
+            }
+        }
+
+        int move = _ai.getBestMove(board, _isWhite, _game.getTimeManager(_isWhite), options, _game.isEndgame());
+        // Think on the human's time. Two bots would only be taking turns on the same cores.
+        if (_game.isHuman(!_isWhite)) _ai.startPondering(board, move, _isWhite);
+        return move;
+    }
+
+    @Override
+    public void gameOver() {
+        _ai.stopPondering();
+    }
+
+    /**
+     * @return the opening book, built from the opening lines first if there isn't one yet. Null if neither can be read.
+     */
+    private static synchronized OpeningBook getBook() {
+        if (!bookLoaded) {
+            bookLoaded = true;
+            try {
+                if (!Files.exists(BOOK_PATH)) {
+                    try (OutputStream out = Files.newOutputStream(BOOK_PATH)) {
+                        OpeningBook.build(OPENINGS_PATH, out);
+                    }
+                }
+                book = OpeningBook.open(BOOK_PATH);
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+                try {
+                    if (book == null) Files.deleteIfExists(BOOK_PATH); // Don't leave half a book behind.
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return book;
     }
 
     @Override
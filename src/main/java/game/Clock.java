@@ -0,0 +1,67 @@
+package game;
+
+/*
+ * A chess clock: each side starts with the same base time, and gets the increment back after every move it makes.
+ * -> Only the side to move's time runs. Game starts it before asking for a move, and stops it once the move is made.
+ * -> A side whose time reaches 0 loses.
+ */
+
+public class Clock {
+    private final long[] _remaining = new long[2]; // In milliseconds, by 0 = white, 1 = black.
+    private final long _increment;
+    private boolean _running;
+    private boolean _runningForWhite;
+    private long _startedAt;
+
+    public Clock(long baseTime, long increment) {
+        _remaining[0] = baseTime;
+        _remaining[1] = baseTime;
+        _increment = increment;
+    }
+
+    /**
+     * Starts the given side's time running.
+     */
+    public synchronized void start(boolean white) {
+        _running = true;
+        _runningForWhite = white;
+        _startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Stops the running side's time.
+     * @param moved true if it stopped because the side made a move, which earns it the increment.
+     */
+    public synchronized void stop(boolean moved) {
+        if (!_running) return;
+        int side = _runningForWhite ? 0 : 1;
+        _remaining[side] -= System.currentTimeMillis() - _startedAt;
+        if (moved && _remaining[side] > 0) _remaining[side] += _increment;
+        _running = false;
+    }
+
+    /**
+     * @return the side's time left in milliseconds, counting the time used so far on the current move.
+     */
+    public synchronized long getRemaining(boolean white) {
+        long remaining = _remaining[white ? 0 : 1];
+        if (_running && _runningForWhite == white) remaining -= System.currentTimeMillis() - _startedAt;
+        return Math.max(0, remaining);
+    }
+
+    public long getIncrement() {
+        return _increment;
+    }
+
+    public boolean hasRunOut(boolean white) {
+        return getRemaining(white) == 0;
+    }
+
+    /**
+     * @return the time as minutes:seconds, for showing on screen.
+     */
+    public static String format(long millis) {
+        long seconds = (millis + 999) / 1000;
+        return seconds / 60 + ":" + (seconds % 60 < 10 ? "0" : "") + seconds % 60;
+    }
+}
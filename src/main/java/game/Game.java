@@ -5,11 +5,13 @@ package game;
  * -> Stores the current state of the game, and the JBoard.
  * -> Is stored by the ChessWidget.
  * -> Manages the turns, and updates the UI when moves are made
+ * -> Runs the chess clock: a side that runs out of time loses (checked once it has moved).
  * -> The "Controller" in the Model-View-Controller design pattern.
  */
 
 import board.Board;
 import evaluation.AI;
+import evaluation.TimeManager;
 import moves.MoveUtils;
 
 import javax.swing.*;
@@ -31,17 +33,30 @@ public class Game implements Runnable {
     private int _numUndos;
     public boolean _movesUndone;
 
-    private static final long timeForAI = 5000;
+    private final Clock _clock;
+
+    public static final long DEFAULT_BASE_TIME = 10 * 60 * 1000;
+    public static final long DEFAULT_INCREMENT = 5000;
+    private static final long resetWaitTime = 5000;
 
     public Game(JBoard view, boolean whiteIsBot, boolean blackIsBot, Type type) {
-        this(view, new Board(type), whiteIsBot, blackIsBot);
+        this(view, whiteIsBot, blackIsBot, type, DEFAULT_BASE_TIME, DEFAULT_INCREMENT);
+    }
+
+    /**
+     * @param baseTime each side's time for the whole game, in milliseconds.
+     * @param increment the time each side gets back after every move.
+     */
+    public Game(JBoard view, boolean whiteIsBot, boolean blackIsBot, Type type, long baseTime, long increment) {
+        this(view, new Board(type), whiteIsBot, blackIsBot, new Clock(baseTime, increment));
         _type = type;
     }
 
-    private Game(JBoard view, Board model, boolean whiteIsBot, boolean blackIsBot) {
+    private Game(JBoard view, Board model, boolean whiteIsBot, boolean blackIsBot, Clock clock) {
         _view = view;
         _view.setGame(this);
         _model = model;
+        _clock = clock;
 
         initializePlayers(whiteIsBot, blackIsBot);
 
@@ -67,7 +82,7 @@ public class Game implements Runnable {
         gameThread.start();
     }
 
-    public long askUserForMove(List<Long> options) {
+    public int askUserForMove(List<Integer> options) {
         return _view.askUserForMove(options);
     }
 
@@ -77,7 +92,7 @@ public class Game implements Runnable {
         _view.setSpots(_model.getLayout());
 
         boolean isWhiteTurn = true;
-        for (int i = 0; (i < timeForAI/100); i++) {
+        for (int i = 0; (i < resetWaitTime/100); i++) {
             if (!_reset) break;
             try {
                 Thread.sleep(100);
@@ -85,23 +100,25 @@ public class Game implements Runnable {
                 e.printStackTrace();
             }
         }
-        while(true) {
+        Board.Result result;
+        while((result = _model.gameResult(isWhiteTurn)) == Board.Result.ONGOING) {
             Player turn = (isWhiteTurn ? _white : _black);
-            List<Long> moveOptions = _model.getAllLegalMoves(isWhiteTurn, turn.isHuman());
-            if (moveOptions.size() == 0 && _model.kingIsInCheck(isWhiteTurn)) break;
-            if (_model.isDraw()) break;
+            List<Integer> moveOptions = _model.getAllLegalMoves(isWhiteTurn, turn.isHuman());
 
             if (_statusLabel != null) {
+                String clocks = " (" + Clock.format(_clock.getRemaining(true)) + " - " + Clock.format(_clock.getRemaining(false)) + ")";
                 if (turn.isHuman()) {
-                    _statusLabel.setText((isWhiteTurn ? " White" : " Black") + " to move");
+                    _statusLabel.setText((isWhiteTurn ? " White" : " Black") + " to move" + clocks);
                 } else {
-                    _statusLabel.setText((isWhiteTurn ? " White" : " Black") + " is thinking . . .");
+                    _statusLabel.setText((isWhiteTurn ? " White" : " Black") + " is thinking . . ." + clocks);
                 }
             }
 
             _numUndos = turn.isHuman() ? 2 : 1;
             _movesUndone = false;
-            long move = turn.getNextMove(moveOptions);
+            _clock.start(isWhiteTurn);
+            int move = turn.getNextMove(moveOptions);
+            _clock.stop(!_movesUndone && !_reset);
 
             if (_movesUndone) {
                 if (!turn.isHuman()) isWhiteTurn = !isWhiteTurn;
@@ -112,28 +129,37 @@ public class Game implements Runnable {
             }
             if (_reset) {
                 _reset = false;
+                _white.gameOver();
+                _black.gameOver();
                 return;
             }
+            if (_clock.hasRunOut(isWhiteTurn)) {
+                result = isWhiteTurn ? Board.Result.BLACK_WON : Board.Result.WHITE_WON;
+                System.out.println((isWhiteTurn ? "White" : "Black") + " ran out of time.");
+                break;
+            }
             _model.applyMove(move);
             _view.setSpots(_model.getLayout(), move);
 
             isWhiteTurn = !isWhiteTurn;
             _endgame = _model.getIsEndgame();
-            System.out.println(getBoard());
+            System.out.println(_model);
         }
+        _white.gameOver();
+        _black.gameOver();
         try {
-            if (_model.isCheckMated(true) && isWhiteTurn) {
+            if (result == Board.Result.BLACK_WON) {
                 _statusLabel.setText(" Game Over - Black Won!");
-            } else if (_model.isCheckMated(false) && !isWhiteTurn) {
+            } else if (result == Board.Result.WHITE_WON) {
                 _statusLabel.setText(" Game Over - White Won!");
             } else {
                 _statusLabel.setText(" Draw Game!");
             }
         } catch (NullPointerException e) {
             System.out.print("Game Over: ");
-            if (_model.isCheckMated(true) && isWhiteTurn) {
+            if (result == Board.Result.BLACK_WON) {
                 System.out.println("Black Won!");
-            } else if (_model.isCheckMated(false) && !isWhiteTurn) {
+            } else if (result == Board.Result.WHITE_WON) {
                 System.out.println("White Won!");
             } else {
                 System.out.println("Draw Game!");
@@ -155,8 +181,15 @@ public class Game implements Runnable {
         return _model.clone();
     }
 
-    public long getAIMaxTime() {
-        return timeForAI;
+    /**
+     * @return a TimeManager for the given side's next move, from the time it has left on the clock.
+     */
+    public TimeManager getTimeManager(boolean white) {
+        return TimeManager.forClock(_clock.getRemaining(white), _clock.getIncrement(), 0);
+    }
+
+    public boolean isHuman(boolean white) {
+        return (white ? _white : _black).isHuman();
     }
 
     public boolean isEndgame() {
@@ -12,7 +12,7 @@ public class HumanPlayer implements Player {
     }
 
     @Override
-    public long getNextMove(List<Long> options) { return _game.askUserForMove(options); }
+    public int getNextMove(List<Integer> options) { return _game.askUserForMove(options); }
 
     @Override
     public boolean isHuman() { return true; }
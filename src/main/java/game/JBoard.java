@@ -25,8 +25,8 @@ public class JBoard extends JPanel implements ChessSpotListener {
     private boolean promptingUser;
     private boolean[] spotsMovable = new boolean[64];
     private boolean[][] spotsMovableInto = new boolean[64][64];
-    private long[][] moves = new long[64][64];
-    private long userChosenMove = -1;
+    private int[][] moves = new int[64][64];
+    private int userChosenMove = -1;
 
     private Game _game = null;
 
@@ -71,7 +71,7 @@ public class JBoard extends JPanel implements ChessSpotListener {
         }
     }
 
-    public void setSpots(int[] spots, long move) {
+    public void setSpots(int[] spots, int move) {
         for (int i = 0; i < spots.length; i++) {
             _spots[i].setPiece(spots[i], _imageIcons[spots[i] + 6]);
             if (i == MoveUtils.getStart(move) || i == MoveUtils.getEnd(move)) {
@@ -82,19 +82,19 @@ public class JBoard extends JPanel implements ChessSpotListener {
         }
     }
 
-    public long askUserForMove(List<Long> allPossibleChoices) {
+    public int askUserForMove(List<Integer> allPossibleChoices) {
         promptingUser = true;
-        moves = new long[64][64];
+        moves = new int[64][64];
         spotsMovable = new boolean[64];
         spotsMovableInto = new boolean[64][64];
-        for (long m : allPossibleChoices) {
+        for (int m : allPossibleChoices) {
             spotsMovable[MoveUtils.getStart(m)] = true;
             spotsMovableInto[MoveUtils.getStart(m)][MoveUtils.getEnd(m)] = true;
             moves[MoveUtils.getStart(m)][MoveUtils.getEnd(m)] = m;
         }
 
         // Wait for user to input a move
-        while (promptingUser && userChosenMove == -1L && !_game._movesUndone) {
+        while (promptingUser && userChosenMove == -1 && !_game._movesUndone) {
             try {
                 Thread.sleep(25);
             } catch (InterruptedException ignored) {}
@@ -102,11 +102,11 @@ public class JBoard extends JPanel implements ChessSpotListener {
 
         if (_game._movesUndone) {
             promptingUser = false;
-            return 0L;
+            return 0;
         }
 
-        long output = userChosenMove;
-        userChosenMove = -1l;
+        int output = userChosenMove;
+        userChosenMove = -1;
         return output;
     }
 
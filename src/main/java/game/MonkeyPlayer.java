@@ -3,6 +3,8 @@ package game;
 import java.util.List;
 
 public class MonkeyPlayer implements Player {
+    private static final long thinkingTime = 1000;
+
     private boolean _white;
     private Game _game;
 
@@ -12,10 +14,10 @@ public class MonkeyPlayer implements Player {
     }
 
     @Override
-    public long getNextMove(List<Long> options) {
-        List<Long> out = _game.getBoard().getAllLegalMoves(_white, false);
+    public int getNextMove(List<Integer> options) {
+        List<Integer> out = _game.getBoard().getAllLegalMoves(_white, false);
         try {
-            Thread.sleep(_game.getAIMaxTime());
+            Thread.sleep(thinkingTime);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
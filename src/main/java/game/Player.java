@@ -3,6 +3,11 @@ package game;
 import java.util.List;
 
 public interface Player {
-    long getNextMove(List<Long> options);
+    int getNextMove(List<Integer> options);
     boolean isHuman();
+
+    /**
+     * Called when the game ends or is reset, so the player can stop anything it has running.
+     */
+    default void gameOver() {}
 }
@@ -0,0 +1,49 @@
+package moves;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A reusable list of moves (see MoveUtils), stored as 16 bit shorts.
+ * -> Move generation writes into a buffer owned by the caller, so search can keep one per ply and never allocate.
+ * -> Only grows (doubling) if a position has more moves than the buffer can hold.
+ */
+
+public class MoveBuffer {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private short[] _moves;
+    private int _size;
+
+    public MoveBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MoveBuffer(int capacity) {
+        _moves = new short[capacity];
+        _size = 0;
+    }
+
+    public void add(int move) {
+        if (_size == _moves.length) _moves = Arrays.copyOf(_moves, _moves.length * 2);
+        _moves[_size] = (short) move;
+        _size++;
+    }
+
+    public int get(int index) { return _moves[index] & 0xFFFF; }
+
+    public int size() { return _size; }
+
+    public int capacity() { return _moves.length; }
+
+    public void clear() { _size = 0; }
+
+    public List<Integer> toList() {
+        List<Integer> output = new ArrayList<>(_size);
+        for (int i = 0; i < _size; i++) {
+            output.add(get(i));
+        }
+        return output;
+    }
+}
@@ -2,247 +2,206 @@ package moves;
 
 import board.Board;
 import board.BoardInfo;
+import board.Zobrist;
 
 import javax.swing.*;
 
 /*
- * Contains tools for working with moves stored as longs.
+ * Contains tools for working with moves stored as 16 bit ints.
  * -> Allows reading and writing moves.
+ * -> A move only says what's moving where. Whatever's needed to undo it (the captured piece and the old BoardInfo)
+ *    is kept on Board's undo stack instead.
  */
 
 /* Move format:
- * [next two lines go in here][A][B][CD][E][F][G][old boardinfo (22 bits)][5 unused bits]
- * [FROM (6 bits)][TO (6 bits)][piece at TO (3 bits)] ...
- * [FROM_1 (6 bits)][TO_1 (6 bits)][piece at TO_1 (3 bits)]
- * -> A: if _layout[to_1] should just be wiped, instead of having from_1 given to it.
- * -> B: if this is a pawn promotion.
- * -> C: if the pawn promotion is for the user to reply to.
- * -> DE: if B is 0, then this represents the choice: C = bishop, D = rook, CD = queen, none = knight.
- * -> F: if this is a castle move.
- * -> G: if the side moving is white
- * -> H: if the move counts as "progress"
- * -> 4 remaining bits are never used.
+ * [FLAG (4 bits)][TO (6 bits)][FROM (6 bits)]
+ * -> FLAG is one of the constants below: a quiet move or capture, a double pawn move, a castle (the rook's squares
+ *    follow from TO), en passant (the captured pawn is beside TO), or a promotion to a given piece.
+ * -> The move 0 (a1 to a1) is never a real move, so it can stand for "no move".
  */
 public abstract class MoveUtils {
+    public static final int NO_MOVE = 0;
+
+    public static final int NORMAL = 0;
+    public static final int DOUBLE_PAWN_MOVE = 1;
+    public static final int CASTLE = 2;
+    public static final int EN_PASSANT = 3;
+    public static final int PROMOTE_KNIGHT = 4;
+    public static final int PROMOTE_BISHOP = 5;
+    public static final int PROMOTE_ROOK = 6;
+    public static final int PROMOTE_QUEEN = 7;
+    public static final int USER_PROMOTION = 8; // The user is asked which piece they want when the move is made.
+
+    // Indexed by flag: the piece a promotion becomes (0 for the rest, and for user promotions).
+    private static final int[] promotionPiece = {0, 0, 0, 0, 2, 3, 4, 5, 0, 0, 0, 0, 0, 0, 0, 0};
+    // Indexed by pawnChoice (0 = user defined, 2 = knight, ... 5 = queen): the flag of that promotion.
+    private static final int[] promotionFlag = {USER_PROMOTION, USER_PROMOTION, PROMOTE_KNIGHT, PROMOTE_BISHOP, PROMOTE_ROOK, PROMOTE_QUEEN};
+    private static final String[] promotionSuffix = {"", "", "", "", "n", "b", "r", "q", "", "", "", "", "", "", "", ""};
+
+    // Indexed by the square the king castles to: where its rook starts and ends.
+    private static final int[] castleRookFrom = new int[64];
+    private static final int[] castleRookTo = new int[64];
+
+    // Indexed by square: the BoardInfo "has moved" bits to set when a move starts there, and when one ends there.
+    private static final int[] movedFromBits = new int[64];
+    private static final int[] movedToBits = new int[64];
+
+    static {
+        castleRookFrom[2] = 0;   castleRookTo[2] = 3;
+        castleRookFrom[6] = 7;   castleRookTo[6] = 5;
+        castleRookFrom[58] = 56; castleRookTo[58] = 59;
+        castleRookFrom[62] = 63; castleRookTo[62] = 61;
+
+        movedFromBits[4] = BoardInfo.setWhiteKingHasMoved(0, true);
+        movedFromBits[60] = BoardInfo.setBlackKingHasMoved(0, true);
+        movedFromBits[0] = movedToBits[0] = BoardInfo.setWhiteCastleA1HasMoved(0, true);
+        movedFromBits[7] = movedToBits[7] = BoardInfo.setWhiteCastleH1HasMoved(0, true);
+        movedFromBits[56] = movedToBits[56] = BoardInfo.setBlackCastleA7HasMoved(0, true);
+        movedFromBits[63] = movedToBits[63] = BoardInfo.setBlackCastleH7HasMoved(0, true);
+    }
 
-    public static long applyMove(Board board, long move) {
-        int from = (int) ((move) & ((1L<<6) - 1));
-        int to = (int) ((move>>>6) & ((1L<<6) - 1));
-        int from1 = (int) ((move>>>15) & ((1L<<6) - 1));
-        int to1 = (int) ((move>>>21) & ((1L<<6) - 1));
-
-        // Make the move
-
-        // Save pieces captured:
-        int oldTo = board.pieceAt(to);
-        move = setBits(move, oldTo < 0 ? -1*oldTo : oldTo, 12, 3);
-        int oldTo1 = board.pieceAt(to1);
-        move = setBits(move, oldTo1 < 0 ? -1*oldTo1 : oldTo1, 27, 3);
-
-        // Put piece from "FROM" into "TO"
-        int multChoiceBy = board.white(from) ? 1 : -1; // For getting the correct color piece.
-
-        if (isUserPawnPromotion(move)) {
-            board.setPiece(to, (multChoiceBy * (askUserForPawnChoice())));
-        } else if (isBotPawnPromotion(move)){
-            // Is bishop?
-            if (((move>>33) & 1) != 0) {
-                // Is also rook?
-                if (((move>>34) & 1) != 0) {
-                    // Queen:
-                    board.setPiece(to, (multChoiceBy * 5));
-                } else {
-                    // Bishop:
-                    board.setPiece(to, (multChoiceBy * 5));
-                }
-            } else {
-                // Is rook?
-                if (((move>>34) & 1) != 0) {
-                    // Rook
-                    board.setPiece(to, (multChoiceBy * 4));
-                } else {
-                    // Knight
-                    board.setPiece(to, (multChoiceBy * 2));
-                }
-            }
-        } else {
-            // Move is not pawn promotion.
-            board.copy(from, to);
+    /**
+     * Makes move on board, and updates its BoardInfo and hash. The caller saves the old BoardInfo and hash.
+     * @return the piece that was captured (0 if none), for undoMove.
+     */
+    public static int applyMove(Board board, int move) {
+        int from = getStart(move);
+        int to = getEnd(move);
+        int flag = getFlag(move);
+        int piece = board.pieceAt(from);
+        boolean white = piece > 0;
+        int capturedPos = flag == EN_PASSANT ? (white ? to - 8 : to + 8) : to;
+        int captured = board.pieceAt(capturedPos);
+        int info = board._info;
+
+        long hash = board._hash ^ Zobrist.infoKey(info) ^ Zobrist.sideKey() ^ Zobrist.pieceKey(piece, from);
+        if (captured != 0) {
+            hash ^= Zobrist.pieceKey(captured, capturedPos);
+            board.wipe(capturedPos);
         }
 
+        int newPiece = piece;
+        if (flag == USER_PROMOTION) {
+            newPiece = white ? askUserForPawnChoice() : -askUserForPawnChoice();
+        } else if (promotionPiece[flag] != 0) {
+            newPiece = white ? promotionPiece[flag] : -promotionPiece[flag];
+        }
         board.wipe(from);
-        if (to1 != from1) {
-            if (((move>>30) & 1) != 0) {
-                board.wipe(to1);
-            } else {
-                board.setPiece(to1, ((move >> 30) & 1) != 0 ? 0 : board.pieceAt(from1));
-                board.wipe(from1);
-            }
+        board.setPiece(to, newPiece);
+        hash ^= Zobrist.pieceKey(newPiece, to);
+
+        if (flag == CASTLE) {
+            int rook = board.pieceAt(castleRookFrom[to]);
+            board.wipe(castleRookFrom[to]);
+            board.setPiece(castleRookTo[to], rook);
+            hash ^= Zobrist.pieceKey(rook, castleRookFrom[to]) ^ Zobrist.pieceKey(rook, castleRookTo[to]);
+            // Castling uses up both of that side's castles.
+            info |= white ? movedFromBits[0] | movedFromBits[4] | movedFromBits[7] : movedFromBits[56] | movedFromBits[60] | movedFromBits[63];
         }
 
-        // Save, and then adjust boardInfo.
-        move = move | (((long) board._info) << 38);
+        // Adjust boardInfo.
+        info |= movedFromBits[from] | movedToBits[to];
+        boolean progress = captured != 0 || piece == 1 || piece == -1;
+        info = BoardInfo.setNumMovesSinceProgress(info, progress ? 0 : BoardInfo.numMovesSinceProgress(info) + 1);
+        info = BoardInfo.setLastMoveWasDoublePawnMove(info, flag == DOUBLE_PAWN_MOVE);
+        if (flag == DOUBLE_PAWN_MOVE) info = BoardInfo.setPositionOfDoublePawn(info, to);
+        board._info = info;
 
-        if (((move>>34) & 1) != 0) board._info = adjustBoardInfoCastle(board._info, ((move>>35) & 1) != 0);
-        else board._info = adjustBoardInfo(board._info, board.pieceAt(to), oldTo, from, to);
-
-        if (((move>>31) & 1) != 0) board._info = BoardInfo.setNumMovesSinceProgress(board._info, 0);
-
-        return move;
+        board._hash = hash ^ Zobrist.infoKey(info);
+        return captured;
     }
 
-    public static void undoMove(Board board, long move) {
-        int from = (int) ((move) & ((1L <<6) - 1));
-        int to = (int) ((move>>>6) & ((1L<<6) - 1));
-        int from1 = (int) ((move>>>15) & ((1L<<6) - 1));
-        int to1 = (int) ((move>>>21) & ((1L<<6) - 1));
-        int savedTo = (int) ((move>>>12) & ((1L<<3) - 1));
-        int savedTo1 = (int) ((move>>>27) & ((1L<<3) - 1));
-        boolean isWhite = board.white(to);
-
-        if (isPawnPromotion(move)) {
-            board.setPiece(to, isWhite ? 1 : -1);
+    /**
+     * Takes move back on board. The caller restores the BoardInfo and hash.
+     * @param captured the piece applyMove returned.
+     */
+    public static void undoMove(Board board, int move, int captured) {
+        int from = getStart(move);
+        int to = getEnd(move);
+        int flag = getFlag(move);
+        int piece = board.pieceAt(to);
+        boolean white = piece > 0;
+
+        if (isPawnPromotion(move)) piece = white ? 1 : -1;
+        board.wipe(to);
+        board.setPiece(from, piece);
+        if (captured != 0) board.setPiece(flag == EN_PASSANT ? (white ? to - 8 : to + 8) : to, captured);
+
+        if (flag == CASTLE) {
+            board.setPiece(castleRookFrom[to], board.pieceAt(castleRookTo[to]));
+            board.wipe(castleRookTo[to]);
         }
+    }
 
-        board.copy(to, from);
-        board.setPiece(to, (isWhite ? -1 : 1) * savedTo);
-        if (from1 != to1) {
-            if (((move>>30) & 1) == 0) {
-                board.copy(to1, from1);
+    public static int generateMove(int from, int to, Board board, int pawnChoice /* 0 = user defined, 2 = knight, 3 = bishop, etc. */) {
+        int flag = NORMAL;
+        if (board.pawn(from)) {
+            if (to / 8 == 0 || to / 8 == 7) {
+                flag = promotionFlag[pawnChoice];
+            } else if (to - from == 16 || from - to == 16) {
+                flag = DOUBLE_PAWN_MOVE;
+            } else if ((to - from) % 8 != 0 && board.empty(to)) {
+                flag = EN_PASSANT;
             }
-            board.setPiece(to1, (isWhite ? -1 : 1) * savedTo1);
+        } else if (board.king(from) && (to - from == 2 || from - to == 2)) {
+            flag = CASTLE;
         }
-
-        board._info = (int) (move>>38);
+        return from | (to << 6) | (flag << 12);
     }
 
-    private static int adjustBoardInfoCastle(int info, boolean white) {
-        info = BoardInfo.setLastMoveWasDoublePawnMove(info, false);
-        if (white) {
-            info = BoardInfo.setWhiteCastleA1HasMoved(info, true);
-            info = BoardInfo.setWhiteCastleH1HasMoved(info, true);
-            info = BoardInfo.setWhiteKingHasMoved(info, true);
-        } else {
-            info = BoardInfo.setBlackCastleA7HasMoved(info, true);
-            info = BoardInfo.setBlackCastleH7HasMoved(info, true);
-            info = BoardInfo.setBlackKingHasMoved(info, true);
-        }
-        return BoardInfo.setNumMovesSinceProgress(info, BoardInfo.numMovesSinceProgress(info) + 1);
+    public static int getStart(int move) {
+        return move & 63;
     }
 
-    private static int adjustBoardInfo(int info, int newTo, int oldTo, int from, int to) {
-        if (from == 0 || to == 0) info = BoardInfo.setWhiteCastleA1HasMoved(info, true);
-        if (from == 4) info = BoardInfo.setWhiteKingHasMoved(info, true);
-        if (from == 7 || to == 7) info = BoardInfo.setWhiteCastleH1HasMoved(info, true);
-        if (from == 56 || to == 56) info = BoardInfo.setBlackCastleA7HasMoved(info, true);
-        if (from == 60) info = BoardInfo.setBlackKingHasMoved(info, true);
-        if (from == 63 || to == 63) info = BoardInfo.setBlackCastleH7HasMoved(info, true);
-
-        info = BoardInfo.setNumMovesSinceProgress(info, BoardInfo.numMovesSinceProgress(info) + 1);
-
-        if (oldTo != 0 || newTo == 1 || newTo == -1) info = BoardInfo.setNumMovesSinceProgress(info, 0);
-
-        if ((newTo == 1 && to - from == 16) ||
-                (newTo == -1 && to - from == -16)) {
-            info = BoardInfo.setLastMoveWasDoublePawnMove(info, true);
-            info = BoardInfo.setPositionOfDoublePawn(info, to);
-        } else {
-            info = BoardInfo.setLastMoveWasDoublePawnMove(info, false);
-        }
-        return info;
+    public static int getEnd(int move) {
+        return (move >>> 6) & 63;
     }
 
-    public static long generateMove(int from, int to, Board board, int pawnChoice /* 0 = user defined, 2 = knight, 3 = bishop, etc. */) {
-        boolean isWhite = board.white(from);
-        long move = 0;
-        move = setBit(move, isWhite, 36);
-        move = setBits(move, from, 0, 6);
-        move = setBits(move, to, 6, 6);
-
-        boolean isEnPassant = board.pawn(from) && (isWhite ? (!board.black(to) && from/8 == 4) : (!board.white(to) && from/8 == 3)) && (to-from) % 8 != 0;
-        move = setBit(move, isEnPassant || board.pawn(from) || (isWhite ? board.black(to) : board.white(to)), 37);
-
-        // En Passant
-        if (isEnPassant) {
-            move = setBit(move, true, 30);
-            move = setBits(move, (isWhite ? to-8 : to+8), 21, 6);
-        }
-
-        // Pawn Promotion
-        if (board.pawn(from) && (isWhite ? to/8 == 7 : to/8 == 0)) {
-//            throw new RuntimeException("Generating a pawn promotion from " + from + " to " + to + "\n" + board.toString());
-            move = setBit(move, true, 31);
-            move = setBit(move, pawnChoice == 0, 32);
-            if (pawnChoice == 3 || pawnChoice == 5) {
-                // Set bishop to be true.
-                move = setBit(move, true, 33);
-            }
-            if (pawnChoice == 4 || pawnChoice == 5) {
-                // Set rook to be true
-                move = setBit(move, true, 34);
-            }
-        }
-
-        // Castling
-        if (board.king(from) && (from - to == 2 || from-to == -2)) {
-            move = setBit(move, true, 35);
-            int from1;
-            int to1;
-            if (to % 8 == 2) {
-                // Left side:
-                from1 = to-2;
-                to1 = to+1;
-            } else {
-                // Right side:
-                from1 = to+1;
-                to1 = to-1;
-            }
-            move = setBits(move, from1, 15, 6);
-            move = setBits(move, to1, 21, 6);
-        }
-
-        return move;
+    public static int getFlag(int move) {
+        return move >>> 12;
     }
 
-    public static int getStart(long move) {
-        return (int) ((move) & ((1L<<6) - 1));
+    public static boolean isUserPawnPromotion(int move) {
+        return getFlag(move) == USER_PROMOTION;
     }
 
-    public static int getEnd(long move) {
-        return (int) ((move>>>6) & ((1L<<6) - 1));
+    public static boolean isPawnPromotion(int move) {
+        return getFlag(move) >= PROMOTE_KNIGHT;
     }
 
-    public static boolean isUserPawnPromotion(long move) {
-        return ((move>>31) & 1L) != 0 && ((move>>32) & 1L) != 0;
+    /**
+     * @return the pawnChoice the move was generated with: 0 for user promotions and moves that aren't promotions,
+     *         otherwise 2 = knight, 3 = bishop, 4 = rook, 5 = queen.
+     */
+    public static int getPawnChoice(int move) {
+        return promotionPiece[getFlag(move)];
     }
 
-    private static boolean isBotPawnPromotion(long move) {
-        return ((move>>31) & 1L) != 0 && ((move>>32) & 1L) == 0;
+    public static boolean isEnPassant(int move) {
+        return getFlag(move) == EN_PASSANT;
     }
 
-    public static boolean isPawnPromotion(long move) {
-        return (move>>31 & 1L) != 0;
+    public static boolean isCastle(int move) {
+        return getFlag(move) == CASTLE;
     }
 
-    public static boolean equal(long move1, long move2) {
-        return getStart(move1) == getStart(move2) && getEnd(move1) == getEnd(move2);
+    /**
+     * @return the move in coordinate notation, like "e2e4", or "e7e8q" for a promotion.
+     */
+    public static String toCoordinates(int move) {
+        return squareName(getStart(move)) + squareName(getEnd(move)) + promotionSuffix[getFlag(move)];
     }
 
-    public static boolean equal(long move1, long move2, long move3) {
-        return equal(move1, move2) && equal(move2, move3);
+    public static String squareName(int square) {
+        return "" + (char) ('a' + square % 8) + (char) ('1' + square / 8);
     }
 
-    private static long setBit (long bits, boolean set, int offset) {
-        if (set) {
-            bits |= (1L << offset);
-        } else {
-            bits &= ~(1L << offset);
-        }
-        return bits;
+    public static boolean equal(int move1, int move2) {
+        return getStart(move1) == getStart(move2) && getEnd(move1) == getEnd(move2);
     }
 
-    private static long setBits (long bits, long set, int offset, int numBits) {
-        return ((bits>>>(offset+numBits))<<(offset+numBits)) | (set << offset) | ((bits<<(32-offset))>>>(32-offset));
+    public static boolean equal(int move1, int move2, int move3) {
+        return equal(move1, move2) && equal(move2, move3);
     }
 
     private static int askUserForPawnChoice() {
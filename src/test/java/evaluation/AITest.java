@@ -0,0 +1,43 @@
+package evaluation;
+
+import board.Board;
+import game.Game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Checks of the search on positions where it has gone wrong before.
+ * -> main() runs every check, printing each result, and exits with an error if any fails.
+ */
+
+public class AITest {
+    public static void main(String[] args) {
+        List<String> failures = new ArrayList<>();
+        check("Slaughter completes depth 1", slaughterCompletesDepthOne(), failures);
+
+        if (!failures.isEmpty()) {
+            System.err.println("AI TESTS FAILED:");
+            for (String failure : failures) System.err.println("  " + failure);
+            System.exit(1);
+        }
+    }
+
+    private static void check(String name, String failure, List<String> failures) {
+        System.out.println(name + ": " + (failure == null ? "ok" : failure));
+        if (failure != null) failures.add(name + ": " + failure);
+    }
+
+    /**
+     * With a queen on nearly every square, almost every move is a capture, and the quiescence search used to search
+     * every exchange there was: depth 1 never finished, and the AI played whichever move was generated first.
+     */
+    private static String slaughterCompletesDepthOne() {
+        Board board = new Board(Game.Type.SLAUGHTER_CHESS);
+        AI ai = new AI();
+        long start = System.currentTimeMillis();
+        ai.getBestMove(board, true, 2000, board.getAllLegalMoves(true, false), false);
+        long time = System.currentTimeMillis() - start;
+        return ai.getLastDepth() >= 1 ? null : "depth " + ai.getLastDepth() + " after " + time + " ms";
+    }
+}
@@ -0,0 +1,48 @@
+package evaluation;
+
+import board.Fen;
+import board.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Checks of the endgame evaluation (see Endgames) on positions whose outcome is known.
+ * -> main() runs every check, printing each result, and exits with an error if any fails.
+ */
+
+public class EndgamesTest {
+    public static void main(String[] args) {
+        List<String> failures = new ArrayList<>();
+        check("KQ vs KR is clearly winning", queenBeatsRook(), failures);
+
+        if (!failures.isEmpty()) {
+            System.err.println("ENDGAME TESTS FAILED:");
+            for (String failure : failures) System.err.println("  " + failure);
+            System.exit(1);
+        }
+    }
+
+    private static void check(String name, String failure, List<String> failures) {
+        System.out.println(name + ": " + (failure == null ? "ok" : failure));
+        if (failure != null) failures.add(name + ": " + failure);
+    }
+
+    /**
+     * A queen is worth less than a rook and a minor piece more, which used to make KQKR look as drawish as KRKN.
+     */
+    private static String queenBeatsRook() {
+        int queenVsRook = points("8/8/8/3k4/8/8/3r4/Q3K3 w - - 0 1");
+        int rookVsKnight = points("8/8/8/3k4/8/8/3n4/R3K3 w - - 0 1");
+        int blackQueenVsRook = points("q3k3/3R4/8/8/3K4/8/8/8 b - - 0 1");
+        if (queenVsRook < 200) return "scored " + queenVsRook;
+        if (queenVsRook < 3 * rookVsKnight) return "scored " + queenVsRook + ", against " + rookVsKnight + " for KRKN";
+        if (blackQueenVsRook > -200) return "scored " + blackQueenVsRook + " with colors swapped";
+        return null;
+    }
+
+    private static int points(String fen) {
+        Position position = Fen.parse(fen);
+        return position._board.getPoints(position._board.getIsEndgame());
+    }
+}